@@ -0,0 +1,210 @@
+package server;
+
+import server.dto.AccountDTO;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of the account rows the dashboards poll: single accounts by id and a
+ * customer's account list by owner id. Both maps are LRU-bounded and entries also expire
+ * after a TTL, so anything written outside the invalidation calls below is stale for at most
+ * that long.
+ *
+ * Writers call {@link #invalidateAccount}, {@link #invalidateOwner} or
+ * {@link #invalidateAccountNumber} after their statement commits. A load that overlaps an
+ * invalidation is returned to its caller but not cached, so a slow read cannot put an old
+ * balance back after a write has cleared it.
+ */
+public class AccountCache {
+    private static final int MAX_ENTRIES = Integer.getInteger("bank.accountCache.size", 10_000);
+    private static final long TTL_NANOS = Long.getLong("bank.accountCache.ttlSeconds", 30) * 1_000_000_000L;
+
+    private final Lru<Long, AccountDTO> byId = new Lru<>(MAX_ENTRIES);
+    private final Lru<Long, List<AccountDTO>> byOwner = new Lru<>(MAX_ENTRIES);
+    // Bumped on every invalidation; loads that see it move do not cache their result.
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    public AccountDTO getById(long accountId, Supplier<AccountDTO> loader) {
+        AccountDTO cached = byId.get(accountId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long startGeneration = generation.get();
+        AccountDTO loaded = timed(loader);
+        if (generation.get() == startGeneration) {
+            byId.put(accountId, loaded);
+        }
+        return loaded;
+    }
+
+    public List<AccountDTO> getByOwner(long customerId, Supplier<List<AccountDTO>> loader) {
+        List<AccountDTO> cached = byOwner.get(customerId);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long startGeneration = generation.get();
+        List<AccountDTO> loaded = List.copyOf(timed(loader));
+        if (generation.get() == startGeneration) {
+            byOwner.put(customerId, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * After a balance change or deletion of one account. The owner's list holds the account
+     * too, so the caller names the owner.
+     */
+    public void invalidateAccount(long accountId, long customerId) {
+        generation.incrementAndGet();
+        byId.remove(accountId);
+        byOwner.remove(customerId);
+    }
+
+    /**
+     * After an account is opened for, or all accounts are removed from, a customer.
+     */
+    public void invalidateOwner(long customerId) {
+        generation.incrementAndGet();
+        byOwner.remove(customerId);
+        for (AccountDTO account : byId.values()) {
+            if (account.getCustomerId() == customerId) {
+                byId.remove(account.getId());
+            }
+        }
+    }
+
+    /**
+     * For writers that only know the account number (deletion by number). Deletions are rare,
+     * so a scan of the cached entries is fine.
+     */
+    public void invalidateAccountNumber(String accountNumber) {
+        generation.incrementAndGet();
+        for (AccountDTO account : byId.values()) {
+            if (account.getAccountNumber().equals(accountNumber)) {
+                invalidateAccount(account.getId(), account.getCustomerId());
+            }
+        }
+        for (Map.Entry<Long, List<AccountDTO>> entry : byOwner.entries()) {
+            for (AccountDTO account : entry.getValue()) {
+                if (account.getAccountNumber().equals(accountNumber)) {
+                    byOwner.remove(entry.getKey());
+                    byId.remove(account.getId());
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * Entries dropped because the cache was full or the entry outlived its TTL.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getTotalLoadNanos() {
+        return loadNanos.sum();
+    }
+
+    public int size() {
+        return byId.size() + byOwner.size();
+    }
+
+    private <T> T timed(Supplier<T> loader) {
+        long start = System.nanoTime();
+        try {
+            return loader.get();
+        } finally {
+            loadNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Access-ordered LinkedHashMap behind one lock. Every operation is a few pointer moves,
+     * so the lock is held only briefly; loads happen outside it.
+     */
+    private final class Lru<K, V> {
+        private final LinkedHashMap<K, Timestamped<V>> map;
+
+        Lru(int maxEntries) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Timestamped<V>> eldest) {
+                    if (size() > maxEntries) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized V get(K key) {
+            Timestamped<V> entry = map.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.loadedAt() > TTL_NANOS) {
+                map.remove(key);
+                evictions.increment();
+                return null;
+            }
+            return entry.value();
+        }
+
+        synchronized void put(K key, V value) {
+            map.put(key, new Timestamped<>(value, System.nanoTime()));
+        }
+
+        synchronized void remove(K key) {
+            map.remove(key);
+        }
+
+        synchronized List<V> values() {
+            List<V> values = new ArrayList<>(map.size());
+            map.values().forEach(entry -> values.add(entry.value()));
+            return values;
+        }
+
+        synchronized List<Map.Entry<K, V>> entries() {
+            List<Map.Entry<K, V>> entries = new ArrayList<>(map.size());
+            map.forEach((key, entry) -> entries.add(Map.entry(key, entry.value())));
+            return entries;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+
+    private record Timestamped<V>(V value, long loadedAt) {
+    }
+}
@@ -0,0 +1,99 @@
+package server;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Version counters behind the ETags of the polled account reads. Every write that can change
+ * an account payload (a posting, opening or deleting an account) bumps the counter of the
+ * account and of its owner's account list, so a poll whose If-None-Match still matches gets
+ * a 304 before the handler queries or serializes anything.
+ *
+ * Counters live in memory only. The tag includes a per-boot id, so tags from before a restart
+ * never match, and a global counter for the rare writes that cannot name the account they hit.
+ */
+public class AccountVersions {
+    private final String bootId = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<Long, AtomicLong> accounts = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicLong> owners = new ConcurrentHashMap<>();
+    private final AtomicLong global = new AtomicLong();
+    private final LongAdder notModified = new LongAdder();
+
+    /**
+     * ETag for one account and its transactions.
+     */
+    public String accountTag(long accountId) {
+        return tag("a", accountId, accounts);
+    }
+
+    /**
+     * ETag for a customer's account list.
+     */
+    public String ownerTag(long customerId) {
+        return tag("c", customerId, owners);
+    }
+
+    public void accountChanged(long accountId, long customerId) {
+        bump(accounts, accountId);
+        bump(owners, customerId);
+    }
+
+    public void ownerChanged(long customerId) {
+        bump(owners, customerId);
+    }
+
+    /**
+     * For writes that only know an account number; invalidates every tag.
+     */
+    public void allChanged() {
+        global.incrementAndGet();
+    }
+
+    /**
+     * Sets the ETag header and, if the request's If-None-Match already has it, answers 304.
+     * Handlers return straight away when this is true. Read the tag before loading data so a
+     * write that lands during the load yields a tag that is already stale, never a fresh tag
+     * on old data.
+     */
+    public boolean notModified(Context ctx, String etag) {
+        ctx.header("ETag", etag);
+        // Revalidate on every use; the payload is per-user.
+        ctx.header("Cache-Control", "private, no-cache");
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch == null || !matches(ifNoneMatch, etag)) {
+            return false;
+        }
+        notModified.increment();
+        ctx.status(HttpStatus.NOT_MODIFIED);
+        return true;
+    }
+
+    public long getNotModifiedCount() {
+        return notModified.sum();
+    }
+
+    private String tag(String kind, long id, Map<Long, AtomicLong> versions) {
+        AtomicLong version = versions.get(id);
+        return "W/\"" + kind + id + "-" + bootId + "-" + global.get() + "-" + (version == null ? 0 : version.get()) + "\"";
+    }
+
+    private static void bump(Map<Long, AtomicLong> versions, long id) {
+        versions.computeIfAbsent(id, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            // Weak comparison: W/"x" and "x" are the same validator.
+            if (trimmed.equals("*") || trimmed.equals(etag) || ("W/" + trimmed).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
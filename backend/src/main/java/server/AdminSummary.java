@@ -0,0 +1,287 @@
+package server;
+
+import bank.DatabaseManager;
+import bank.LedgerService;
+import bank.Outbox;
+import bank.OutboxEvent;
+import bank.OutboxSink;
+import bank.RepositoryEvent;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * Counts behind the admin dashboard's summary (GET /api/admin/summary): users by role, locked
+ * users, pending requests per queue and total balance per account type. Reading them costs a
+ * copy of a handful of map entries, however many users and accounts there are.
+ *
+ * The counts are kept current by the writes themselves. Balance, account and role changes
+ * arrive from the outbox (this is an {@link OutboxSink}); user creation and deletion and
+ * request-queue changes are reported by the handlers that make them; locks are tracked by
+ * {@link SecurityService}. Every bank.summary.reconcileSeconds the counts are recomputed
+ * from the database, which corrects anything made outside the API (a seeder, a cascade) and
+ * the rare handler update that raced a reconciliation.
+ *
+ * A reconciliation reads each database file in one transaction together with the highest
+ * outbox id in it; outbox events up to that id are already in the recomputed counts and are
+ * skipped, so an event is never counted twice, including the at-least-once redeliveries.
+ * Events published while the reconciliation reads are applied again on top of its result.
+ */
+public class AdminSummary implements OutboxSink {
+    private static final long RECONCILE_SECONDS = Long.getLong("bank.summary.reconcileSeconds", 60);
+    private static final double BALANCE_TOLERANCE = 0.005;
+
+    private final DatabaseManager dbManager;
+    private final SecurityService securityService;
+    private final Map<String, Long> usersByRole = new ConcurrentHashMap<>();
+    private final Map<String, Long> pendingRequests = new ConcurrentHashMap<>();
+    private final Map<String, Double> balancesByType = new ConcurrentHashMap<>();
+    // Highest outbox id per source already reflected in the counts.
+    private final Map<Integer, Long> applied = new HashMap<>();
+    // Events published since the running reconciliation started reading; null if none runs.
+    private List<OutboxEvent> publishedDuringReconcile;
+    private final LongAdder reconciliations = new LongAdder();
+    private final LongAdder corrections = new LongAdder();
+    private volatile Instant reconciledAt;
+
+    // Totals read from one database file, with the outbox position they are consistent with.
+    private record FileCounts(long outboxId, Map<String, Long> usersByRole, Map<String, Long> pendingRequests,
+            Map<String, Double> balancesByType) {
+    }
+
+    public AdminSummary(DatabaseManager dbManager, SecurityService securityService) {
+        this.dbManager = dbManager;
+        this.securityService = securityService;
+    }
+
+    /**
+     * Reconciles once, then keeps reconciling on a daemon thread.
+     */
+    public void start() {
+        reconcile();
+        ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "admin-summary-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) {
+                System.err.println("Error reconciling admin summary: " + e.getMessage());
+            }
+        }, RECONCILE_SECONDS, RECONCILE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("usersByRole", new TreeMap<>(usersByRole));
+        summary.put("lockedUsers", securityService.getLockedCount());
+        summary.put("pendingRequests", new TreeMap<>(pendingRequests));
+        summary.put("balancesByAccountType", new TreeMap<>(balancesByType));
+        Instant at = reconciledAt;
+        summary.put("reconciledAt", at == null ? null : at.toString());
+        return summary;
+    }
+
+    public synchronized void userAdded(String role) {
+        usersByRole.merge(role.toUpperCase(), 1L, Long::sum);
+    }
+
+    public synchronized void userRemoved(String role) {
+        usersByRole.merge(role.toUpperCase(), -1L, Long::sum);
+    }
+
+    /**
+     * A request entered ("pending") or left (any other status) a queue.
+     */
+    public synchronized void requestChanged(String queue, String status) {
+        pendingRequests.merge(queue, "pending".equals(status) ? 1L : -1L, Long::sum);
+    }
+
+    @Override
+    public synchronized void publish(List<OutboxEvent> events) {
+        for (OutboxEvent event : events) {
+            if (publishedDuringReconcile != null) {
+                publishedDuringReconcile.add(event);
+            }
+            apply(event);
+        }
+    }
+
+    private void apply(OutboxEvent event) {
+        if (event.id() <= applied.getOrDefault(event.source(), 0L)) {
+            return;
+        }
+        applied.put(event.source(), event.id());
+        JsonObject payload = JsonParser.parseString(event.payload()).getAsJsonObject();
+        switch (event.topic()) {
+            case Outbox.BALANCE -> balancesByType.merge(payload.get("accountType").getAsString(),
+                    payload.get("change").getAsDouble(), Double::sum);
+            case Outbox.ACCOUNT -> {
+                double balance = payload.get("balance").getAsDouble();
+                balancesByType.merge(payload.get("accountType").getAsString(),
+                        "deleted".equals(payload.get("change").getAsString()) ? -balance : balance, Double::sum);
+            }
+            case Outbox.ROLE -> {
+                usersByRole.merge(payload.get("previousRole").getAsString().toUpperCase(), -1L, Long::sum);
+                usersByRole.merge(payload.get("role").getAsString(), 1L, Long::sum);
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Recomputes every count from the database.
+     */
+    public void reconcile() {
+        securityService.reconcileLocks();
+        synchronized (this) {
+            publishedDuringReconcile = new ArrayList<>();
+        }
+        // Keyed by outbox source: shard number, or DIRECTORY.
+        Map<Integer, FileCounts> files = new HashMap<>();
+        RepositoryEvent event = RepositoryEvent.start("AdminSummary.reconcile");
+        try {
+            boolean sharded = dbManager.getShardCount() > 1;
+            List<FileCounts> shards = dbManager.forEachShard(
+                    connection -> DatabaseManager.inTransaction(connection, c -> countShard(c, !sharded)));
+            for (int shard = 0; shard < shards.size(); shard++) {
+                files.put(shard, shards.get(shard));
+            }
+            if (sharded) {
+                try (Connection connection = dbManager.getConnection()) {
+                    files.put(OutboxEvent.DIRECTORY,
+                            DatabaseManager.inTransaction(connection, AdminSummary::countDirectory));
+                }
+            }
+            event.rows = files.size();
+        } catch (SQLException e) {
+            synchronized (this) {
+                publishedDuringReconcile = null;
+            }
+            throw new RuntimeException("Unable to reconcile admin summary", e);
+        } finally {
+            event.commit();
+        }
+
+        Map<String, Long> users = new HashMap<>();
+        Map<String, Long> pending = new HashMap<>();
+        Map<String, Double> balances = new HashMap<>();
+        for (FileCounts file : files.values()) {
+            file.usersByRole().forEach((role, total) -> users.merge(role, total, Long::sum));
+            file.pendingRequests().forEach((queue, total) -> pending.merge(queue, total, Long::sum));
+            file.balancesByType().forEach((type, total) -> balances.merge(type, total, Double::sum));
+        }
+        synchronized (this) {
+            long changed = replace(usersByRole, users, Long::equals)
+                    + replace(pendingRequests, pending, Long::equals)
+                    + replace(balancesByType, balances, (a, b) -> Math.abs(a - b) < BALANCE_TOLERANCE);
+            if (reconciledAt != null) {
+                corrections.add(changed);
+            }
+            files.forEach((source, file) -> applied.put(source, file.outboxId()));
+            // Events past what each file's read saw are not in the new counts yet.
+            for (OutboxEvent published : publishedDuringReconcile) {
+                apply(published);
+            }
+            publishedDuringReconcile = null;
+        }
+        reconciliations.increment();
+        reconciledAt = Instant.now();
+    }
+
+    public long getReconciliationCount() {
+        return reconciliations.sum();
+    }
+
+    /**
+     * Counts that were off when a reconciliation recomputed them.
+     */
+    public long getCorrectionCount() {
+        return corrections.sum();
+    }
+
+    // A shard's balances, and with one shard also the directory tables in the same file.
+    private static FileCounts countShard(Connection connection, boolean withDirectory) throws SQLException {
+        FileCounts directory = withDirectory ? countDirectory(connection) : null;
+        Map<String, Double> balances = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT a.account_type, SUM(" + LedgerService.BALANCE_SQL + ") AS total FROM accounts a "
+                        + "GROUP BY a.account_type");
+                ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                balances.put(rs.getString("account_type"), rs.getDouble("total"));
+            }
+        }
+        return new FileCounts(maxOutboxId(connection), directory == null ? Map.of() : directory.usersByRole(),
+                directory == null ? Map.of() : directory.pendingRequests(), balances);
+    }
+
+    private static FileCounts countDirectory(Connection connection) throws SQLException {
+        Map<String, Long> users = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT UPPER(role) AS role, COUNT(*) AS total FROM main.users GROUP BY UPPER(role)");
+                ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                users.put(rs.getString("role"), rs.getLong("total"));
+            }
+        }
+        Map<String, Long> pending = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT (SELECT COUNT(*) FROM main.account_requests WHERE status = 'pending') AS account, "
+                        + "(SELECT COUNT(*) FROM main.password_reset_requests WHERE status = 'pending') AS reset, "
+                        + "(SELECT COUNT(*) FROM main.account_deletion_requests WHERE status = 'pending') AS deletion");
+                ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            pending.put("account", rs.getLong("account"));
+            pending.put("password-reset", rs.getLong("reset"));
+            pending.put("account-deletion", rs.getLong("deletion"));
+        }
+        return new FileCounts(maxOutboxId(connection), users, pending, Map.of());
+    }
+
+    private static long maxOutboxId(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COALESCE(MAX(id), 0) FROM main.outbox");
+                ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static <V> long replace(Map<String, V> current, Map<String, V> fresh,
+            BiPredicate<V, V> same) {
+        long changed = 0;
+        for (Map.Entry<String, V> entry : fresh.entrySet()) {
+            V old = current.put(entry.getKey(), entry.getValue());
+            if (old == null || !same.test(old, entry.getValue())) {
+                changed++;
+            }
+        }
+        for (String key : List.copyOf(current.keySet())) {
+            if (!fresh.containsKey(key)) {
+                current.remove(key);
+                changed++;
+            }
+        }
+        return changed;
+    }
+}
@@ -7,27 +7,62 @@ import io.javalin.Javalin;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 public class ApiServer {
     private static final Gson gson = new Gson();
     private static final DatabaseManager dbManager = new DatabaseManager();
+    // Audit trail for logins and deletions; written by a background thread so
+    // request handlers never wait on the file. Rolls daily or at 16 MB, with an
+    // index per segment for per-actor and time-range lookups.
+    private static final Logs auditLogs = new Logs("bank-log.txt", LogOptions.async()
+            .segmentMaxBytes(16L * 1024 * 1024)
+            .segmentMaxAgeMillis(24L * 60 * 60 * 1000));
     private static final UserRepository userRepository = new UserRepository(dbManager);
-    private static final AccountRepository accountRepository = new AccountRepository(dbManager);
+    private static final AccountRepository accountRepository = new AccountRepository(dbManager, auditLogs);
     private static final TransactionRepository transactionRepository = new TransactionRepository(dbManager);
-    private static final CustomerService customerService = new CustomerService(userRepository, accountRepository);
-    private static final SecurityService securityService = new SecurityService(dbManager);
+    private static final CustomerService customerService = new CustomerService(userRepository, accountRepository, auditLogs);
+    private static final SecurityService securityService = new SecurityService(dbManager, userRepository);
+    private static final AccountCache accountCache = new AccountCache();
+    private static final AccountVersions accountVersions = new AccountVersions();
+    private static final ResponseCompression compression = new ResponseCompression();
+    private static final EventBus events = new EventBus(gson);
+    private static final IdempotencyStore idempotency = new IdempotencyStore(dbManager);
+    private static final LedgerService ledger = new LedgerService(dbManager);
+    private static final AdminSummary summary = new AdminSummary(dbManager, securityService);
+    private static final OutboxTailer outbox = new OutboxTailer(dbManager)
+            .addSink(new EventBusSink(events))
+            .addSink(summary);
+    private static final IdentityCache identities = IdentityCache.shared();
+    private static final TokenRevocationList tokenRevocations = new TokenRevocationList(dbManager);
+    private static final AuthFilter authFilter = new AuthFilter(tokenRevocations);
+    private static final RoutePolicy routePolicy = new RoutePolicy(auditLogs);
+    private static final RateLimiter rateLimiter = new RateLimiter();
+    private static final int DASHBOARD_MAX_TRANSACTIONS = Integer.getInteger("bank.dashboard.maxTransactions", 50);
 
     public static void main(String[] args) {
         System.out.println("Initializing database...");
         dbManager.initialize();
         securityService.initialize();
+        tokenRevocations.initialize();
+        idempotency.initialize();
+        rateLimiter.start();
+        ledger.startConsolidation();
+        // Reconcile before the tailer runs, so events since its checkpoint are not counted twice.
+        summary.start();
+        startOutbox();
+        Runtime.getRuntime().addShutdownHook(new Thread(auditLogs::close, "audit-log-shutdown"));
+        Runtime.getRuntime().addShutdownHook(new Thread(securityService::close, "security-shutdown"));
 
         System.out.println("Checking database content...");
         try {
@@ -48,6 +83,11 @@ public class ApiServer {
 
         System.out.println("Starting Javalin server...");
         Javalin app = Javalin.create(config -> {
+            // Handlers block on JDBC; on virtual threads a slow write parks cheaply
+            // and waits at the DatabaseManager gate instead of exhausting Jetty's pool.
+            config.useVirtualThreads = Boolean.parseBoolean(System.getProperty("bank.server.virtualThreads", "true"));
+            // Compression is done by the ResponseCompression after-filter, which counts it.
+            config.http.disableCompression();
             config.bundledPlugins.enableCors(cors -> {
                 cors.addRule(it -> {
                     it.anyHost();
@@ -66,6 +106,19 @@ public class ApiServer {
             });
         }).start(8080);
 
+        // JFR handler events (no-ops unless a recording is running); compression runs
+        // inside the event so its cost is attributed to the route.
+        app.beforeMatched(HandlerEvent::begin);
+        app.after(compression::compress);
+        app.after(HandlerEvent::end);
+
+        // Bearer token verified once per request; handlers read AuthPrincipal.of(ctx).
+        // Throttled callers get 429 before any DB work, then RoutePolicy checks the
+        // caller's role against its table.
+        app.beforeMatched(authFilter::authenticate);
+        app.beforeMatched(rateLimiter::limit);
+        app.beforeMatched(routePolicy::authorize);
+
         // Auth endpoints
         app.post("/api/auth/login", ApiServer::login);
         app.post("/api/auth/logout", ApiServer::logout);
@@ -74,6 +127,7 @@ public class ApiServer {
         // Customer endpoints
         app.post("/api/customers", ApiServer::createCustomer);
         app.get("/api/customers/{customerId}/accounts", ApiServer::getCustomerAccounts);
+        app.get("/api/customers/{customerId}/dashboard", ApiServer::getCustomerDashboard);
 
         // Account request endpoints (must be before parameterized routes)
         app.post("/api/accounts/request", ApiServer::requestAccount);
@@ -96,6 +150,11 @@ public class ApiServer {
         // Transaction endpoints
         app.get("/api/accounts/{accountId}/transactions", ApiServer::getAccountTransactions);
         app.post("/api/accounts/{accountId}/transactions", ApiServer::createTransaction);
+        app.post("/api/transfers", ApiServer::createTransfer);
+        app.post("/api/transfers/batch", ApiServer::createTransferBatch);
+
+        // Live balance, transaction and request-queue updates
+        app.sse(EventBus.PATH, events::stream);
 
         // Admin endpoints
         app.get("/api/users", ApiServer::getAllUsers);
@@ -112,6 +171,10 @@ public class ApiServer {
         app.post("/api/auth/password-reset/approve/{requestId}", ApiServer::approvePasswordReset);
         app.post("/api/auth/password-reset/reject/{requestId}", ApiServer::rejectPasswordReset);
 
+        // Operational counters
+        app.get("/api/admin/metrics", ApiServer::getMetrics);
+        app.get("/api/admin/summary", ApiServer::getAdminSummary);
+
         System.out.println("API Server started on port 8080");
     }
 
@@ -120,45 +183,41 @@ public class ApiServer {
             LoginRequest request = ctx.bodyAsClass(LoginRequest.class);
             System.out.println("Login attempt for username: " + request.getUsername());
 
-            long userId;
-            try {
-                userId = getUserId(request.getUsername());
-            } catch (Exception e) {
-                // User not found
+            // One query for the user, role, created_at and lock state; the counters are
+            // written back with at most one statement.
+            SecurityService.LoginRecord record = securityService.findLoginRecord(request.getUsername());
+            if (record == null) {
                 ctx.status(HttpStatus.UNAUTHORIZED)
                         .json(new ErrorResponse("UNAUTHORIZED", "Invalid credentials"));
                 return;
             }
+            long userId = record.userId();
 
-            if (securityService.isLocked(userId)) {
+            if (record.locked()) {
                 ctx.status(HttpStatus.UNAUTHORIZED)
                         .json(new ErrorResponse("LOCKED",
                                 "Account is locked due to too many failed attempts. Please try again in 24 hours or contact admin."));
                 return;
             }
 
-            boolean loginSuccess = customerService.loginUser(request.getUsername(), request.getPassword(), null);
+            User user = record.user();
+            boolean loginSuccess = customerService.loginUser(user, request.getPassword(), null);
             System.out.println("Login success: " + loginSuccess);
 
             if (loginSuccess) {
-                securityService.resetFailedAttempts(userId);
+                securityService.recordLoginSuccess(record);
 
-                String role = getRoleForUser(request.getUsername());
+                String role = record.role();
                 System.out.println("User role: " + role);
 
-                User user = getUserByUsername(request.getUsername());
-                System.out.println("User object retrieved: " + user.getUserName());
-
                 String token = JwtUtil.generateToken(user.getUserName(), role.toUpperCase(), userId);
-                boolean forcePasswordChange = securityService.isPasswordChangeRequired(userId);
 
                 UserDTO userDTO = new UserDTO(userId, user.getUserName(), user.getFirstName(),
                         user.getLastName(), role.toLowerCase(),
-                        getCurrentTimestamp(userId), forcePasswordChange, false);
+                        record.createdAt(), record.forcePasswordChange(), false);
                 ctx.json(new LoginResponse(token, userDTO));
             } else {
-                securityService.recordFailedAttempt(userId);
-                int attempts = securityService.getFailedAttempts(userId);
+                int attempts = securityService.recordLoginFailure(userId);
 
                 if (attempts >= 5) {
                     ctx.status(HttpStatus.UNAUTHORIZED)
@@ -172,6 +231,11 @@ public class ApiServer {
                             .json(new ErrorResponse("UNAUTHORIZED", "Invalid credentials"));
                 }
             }
+        } catch (RejectedExecutionException e) {
+            // Password hashing queue is full; shed the login instead of queueing more CPU work.
+            ctx.header("Retry-After", "1");
+            ctx.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .json(new ErrorResponse("BUSY", "Too many logins in progress. Please try again."));
         } catch (Exception e) {
             System.err.println("Login error: " + e.getMessage());
             e.printStackTrace();
@@ -180,20 +244,109 @@ public class ApiServer {
         }
     }
 
+    private static void getAdminSummary(Context ctx) {
+        ctx.json(summary.snapshot());
+    }
+
+    private static void startOutbox() {
+        try {
+            NdjsonOutboxSink file = NdjsonOutboxSink.fromSystemProperty();
+            if (file != null) {
+                outbox.addSink(file);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        System.err.println("Error closing outbox file: " + e.getMessage());
+                    }
+                }, "outbox-shutdown"));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open bank.outbox.file", e);
+        }
+        outbox.start();
+    }
+
+    private static void getMetrics(Context ctx) {
+        PasswordHasher hasher = userRepository.getPasswordHasher();
+        long hashed = Math.max(1, hasher.getCompletedCount());
+        Map<String, Object> passwordHashing = new LinkedHashMap<>();
+        passwordHashing.put("iterations", hasher.getIterations());
+        passwordHashing.put("completed", hasher.getCompletedCount());
+        passwordHashing.put("rejected", hasher.getRejectedCount());
+        passwordHashing.put("queued", hasher.getQueuedCount());
+        passwordHashing.put("active", hasher.getActiveCount());
+        passwordHashing.put("avgQueueMicros", hasher.getTotalQueueNanos() / hashed / 1000);
+        passwordHashing.put("maxQueueMicros", hasher.getMaxQueueNanos() / 1000);
+        passwordHashing.put("avgHashMicros", hasher.getTotalWorkNanos() / hashed / 1000);
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("authenticated", AuthFilter.getAuthenticatedCount());
+        metrics.put("authRejected", AuthFilter.getRejectedCount());
+        metrics.put("jwtCacheHits", JwtUtil.getCacheHits());
+        metrics.put("jwtCacheMisses", JwtUtil.getCacheMisses());
+        metrics.put("revokedTokens", tokenRevocations.getRevokedTokenCount());
+        metrics.put("revokedUsers", tokenRevocations.getUserCutoffCount());
+        metrics.put("accessDenied", routePolicy.getDeniedCount());
+        metrics.put("rateLimited", rateLimiter.getThrottledCount());
+        metrics.put("auditLogDropped", auditLogs.getDroppedCount());
+        metrics.put("identityCacheHits", identities.getHits());
+        metrics.put("identityCacheMisses", identities.getMisses());
+
+        long loads = Math.max(1, accountCache.getMisses());
+        Map<String, Object> cache = new LinkedHashMap<>();
+        cache.put("hits", accountCache.getHits());
+        cache.put("misses", accountCache.getMisses());
+        cache.put("hitRatio", accountCache.getHitRatio());
+        cache.put("evictions", accountCache.getEvictions());
+        cache.put("avgLoadMicros", accountCache.getTotalLoadNanos() / loads / 1000);
+        cache.put("size", accountCache.size());
+        metrics.put("accountCache", cache);
+        metrics.put("notModified", accountVersions.getNotModifiedCount());
+        metrics.put("passwordHashing", passwordHashing);
+        metrics.put("compression", compression.getMetrics());
+        Map<String, Object> eventStats = new LinkedHashMap<>();
+        eventStats.put("subscribers", events.getSubscriberCount());
+        eventStats.put("published", events.getPublishedCount());
+        eventStats.put("delivered", events.getDeliveredCount());
+        eventStats.put("evicted", events.getEvictedCount());
+        metrics.put("events", eventStats);
+        Map<String, Object> idempotencyStats = new LinkedHashMap<>();
+        idempotencyStats.put("executed", idempotency.getExecutedCount());
+        idempotencyStats.put("replayed", idempotency.getReplayedCount());
+        idempotencyStats.put("coalesced", idempotency.getCoalescedCount());
+        idempotencyStats.put("conflicts", idempotency.getConflictCount());
+        metrics.put("idempotency", idempotencyStats);
+        Map<String, Object> ledgerStats = new LinkedHashMap<>();
+        ledgerStats.put("slotCredits", ledger.getSlotCreditCount());
+        ledgerStats.put("consolidations", ledger.getConsolidationCount());
+        metrics.put("ledger", ledgerStats);
+        Map<String, Object> outboxStats = new LinkedHashMap<>();
+        outboxStats.put("published", outbox.getPublishedCount());
+        outboxStats.put("batches", outbox.getBatchCount());
+        outboxStats.put("failures", outbox.getFailureCount());
+        metrics.put("outbox", outboxStats);
+        Map<String, Object> summaryStats = new LinkedHashMap<>();
+        summaryStats.put("reconciliations", summary.getReconciliationCount());
+        summaryStats.put("corrections", summary.getCorrectionCount());
+        metrics.put("adminSummary", summaryStats);
+        ctx.json(metrics);
+    }
+
     private static void logout(Context ctx) {
+        // Logout is public so a stale client can always sign out; a valid token is revoked.
+        AuthPrincipal principal = AuthPrincipal.of(ctx);
+        if (principal != null) {
+            tokenRevocations.revoke(principal.tokenId(), principal.userId(), principal.expiresAtMillis());
+        }
         ctx.status(HttpStatus.OK).result("Logged out successfully");
     }
 
     private static void changePassword(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String username = JwtUtil.getUsernameFromToken(token);
-            long userId = getUserId(username);
+            AuthPrincipal principal = AuthPrincipal.of(ctx);
+            String username = principal.username();
+            long userId = principal.userId();
 
             Map<String, String> body = ctx.bodyAsClass(Map.class);
             String newPassword = body.get("newPassword");
@@ -241,6 +394,7 @@ public class ApiServer {
                 statement.setLong(1, userId);
                 statement.setString(2, username);
                 statement.executeUpdate();
+                publishRequestChange("password-reset", "pending", null, Role.ADMIN);
 
                 ctx.status(HttpStatus.CREATED)
                         .json(Map.of("message", "Password reset request created successfully"));
@@ -256,23 +410,6 @@ public class ApiServer {
 
     private static void getPasswordResetRequests(Context ctx) {
         try {
-            // Only admins can view password reset requests
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED)
-                        .json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-
-            if (!"admin".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN)
-                        .json(new ErrorResponse("FORBIDDEN", "Only admins can view password reset requests"));
-                return;
-            }
-
             List<PasswordResetRequestDTO> requests = new ArrayList<>();
             String sql = "SELECT id, user_id, username, status, requested_at, resolved_at " +
                     "FROM password_reset_requests WHERE status = 'pending' ORDER BY requested_at DESC";
@@ -305,23 +442,6 @@ public class ApiServer {
 
     private static void approvePasswordReset(Context ctx) {
         try {
-            // Only admins can approve password reset requests
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED)
-                        .json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-
-            if (!"admin".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN)
-                        .json(new ErrorResponse("FORBIDDEN", "Only admins can approve password reset requests"));
-                return;
-            }
-
             long requestId = Long.parseLong(ctx.pathParam("requestId"));
 
             // Get username from request
@@ -350,24 +470,31 @@ public class ApiServer {
 
             // Update request status
             // Update request status
-            String updateSql = "UPDATE password_reset_requests SET status = 'approved', resolved_at = datetime('now') WHERE id = ?";
+            String updateSql = "UPDATE password_reset_requests SET status = 'approved', resolved_at = datetime('now') "
+                    + "WHERE id = ? AND status = 'pending'";
+            boolean resolved;
 
             try (Connection connection = dbManager.getConnection();
                     PreparedStatement statement = connection.prepareStatement(updateSql)) {
                 statement.setLong(1, requestId);
-                statement.executeUpdate();
+                resolved = statement.executeUpdate() > 0;
             }
 
             // Force password change on next login
             try {
                 long userId = getUserId(username);
                 securityService.setForcePasswordChange(userId, true);
+                // Sessions opened with the old password end here.
+                tokenRevocations.revokeAllForUser(userId);
             } catch (Exception e) {
                 System.err.println("Error setting force password change: " + e.getMessage());
                 e.printStackTrace();
                 throw new RuntimeException("Failed to set force password change: " + e.getMessage(), e);
             }
 
+            if (resolved) {
+                publishRequestChange("password-reset", "approved", requestId, Role.ADMIN);
+            }
             ctx.json(Map.of(
                     "message", "Password reset approved",
                     "username", username,
@@ -384,23 +511,6 @@ public class ApiServer {
 
     private static void rejectPasswordReset(Context ctx) {
         try {
-            // Only admins can reject password reset requests
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED)
-                        .json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-
-            if (!"admin".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN)
-                        .json(new ErrorResponse("FORBIDDEN", "Only admins can reject password reset requests"));
-                return;
-            }
-
             long requestId = Long.parseLong(ctx.pathParam("requestId"));
 
             String updateSql = "UPDATE password_reset_requests SET status = 'rejected', " +
@@ -419,6 +529,7 @@ public class ApiServer {
                 }
             }
 
+            publishRequestChange("password-reset", "rejected", requestId, Role.ADMIN);
             ctx.json(Map.of("message", "Password reset request rejected"));
         } catch (SQLException e) {
             e.printStackTrace();
@@ -438,6 +549,9 @@ public class ApiServer {
                     request.getUsername(),
                     request.getUsername(),
                     request.getPassword());
+            if (customer != null) {
+                summary.userAdded("CUSTOMER");
+            }
             ctx.status(HttpStatus.CREATED).json(customer);
         } catch (Exception e) {
             ctx.status(HttpStatus.BAD_REQUEST)
@@ -448,8 +562,17 @@ public class ApiServer {
     private static void getCustomerAccounts(Context ctx) {
         try {
             long customerId = Long.parseLong(ctx.pathParam("customerId"));
-            String username = getUsernameById(customerId);
-            List<AccountDTO> accounts = getAccountsByUsername(username);
+            AuthPrincipal principal = AuthPrincipal.of(ctx);
+            if (principal.role() == Role.CUSTOMER && principal.userId() != customerId) {
+                ctx.status(HttpStatus.FORBIDDEN)
+                        .json(new ErrorResponse("FORBIDDEN", "Customers can only view their own accounts"));
+                return;
+            }
+            if (accountVersions.notModified(ctx, accountVersions.ownerTag(customerId))) {
+                return;
+            }
+            List<AccountDTO> accounts = accountCache.getByOwner(customerId,
+                    () -> getAccountsByUsername(getUsernameById(customerId)));
             ctx.json(accounts);
         } catch (IllegalStateException e) {
             ctx.status(HttpStatus.NOT_FOUND)
@@ -460,9 +583,131 @@ public class ApiServer {
         }
     }
 
+    /**
+     * Everything the customer dashboard shows in one response: accounts with balances, the
+     * latest transactions of each, and the customer's pending requests. Three queries on one
+     * connection (the customer's shard, which sees the directory), however many accounts the
+     * customer has, read in one transaction so the parts agree with each other.
+     */
+    private static void getCustomerDashboard(Context ctx) {
+        try {
+            long customerId = Long.parseLong(ctx.pathParam("customerId"));
+            AuthPrincipal principal = AuthPrincipal.of(ctx);
+            if (principal.role() == Role.CUSTOMER && principal.userId() != customerId) {
+                ctx.status(HttpStatus.FORBIDDEN)
+                        .json(new ErrorResponse("FORBIDDEN", "Customers can only view their own accounts"));
+                return;
+            }
+            if (identities.byId(customerId) == null) {
+                ctx.status(HttpStatus.NOT_FOUND).json(new ErrorResponse("NOT_FOUND", "User not found"));
+                return;
+            }
+            int transactions = Math.max(0, Math.min(DASHBOARD_MAX_TRANSACTIONS,
+                    Integer.parseInt(ctx.queryParamAsClass("transactions", String.class).getOrDefault("5"))));
+            try (Connection connection = dbManager.getConnectionForCustomer(customerId)) {
+                ctx.json(DatabaseManager.inTransaction(connection,
+                        c -> queryCustomerDashboard(c, customerId, transactions)));
+            }
+        } catch (NumberFormatException e) {
+            ctx.status(HttpStatus.BAD_REQUEST).json(new ErrorResponse("BAD_REQUEST", "Invalid customer id or count"));
+        } catch (Exception e) {
+            ctx.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .json(new ErrorResponse("ERROR", e.getMessage()));
+        }
+    }
+
+    private static CustomerDashboardDTO queryCustomerDashboard(Connection connection, long customerId,
+            int transactions) throws SQLException {
+        CustomerDashboardDTO dashboard = new CustomerDashboardDTO();
+        dashboard.customerId = customerId;
+        Map<Long, DashboardAccountDTO> accounts = new LinkedHashMap<>();
+        String accountsSql = "SELECT a.id, a.customer_id, a.account_type, a.account_number, " + LedgerService.BALANCE_SQL
+                + " AS balance, a.created_at, u.first_name, u.last_name FROM accounts a "
+                + "JOIN users u ON u.id = a.customer_id WHERE a.customer_id = ? ORDER BY a.id";
+        try (PreparedStatement statement = connection.prepareStatement(accountsSql)) {
+            statement.setLong(1, customerId);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    DashboardAccountDTO account = new DashboardAccountDTO(
+                            rs.getLong("id"),
+                            rs.getLong("customer_id"),
+                            rs.getString("account_type").toLowerCase(),
+                            rs.getString("account_number"),
+                            rs.getDouble("balance"),
+                            rs.getString("created_at"),
+                            rs.getString("first_name") + " " + rs.getString("last_name"));
+                    accounts.put(account.getId(), account);
+                    dashboard.totalBalance += account.getBalance();
+                }
+            }
+        }
+        dashboard.accounts = new ArrayList<>(accounts.values());
+
+        // Latest N per account in one pass; same order as GET /api/accounts/{id}/transactions.
+        String transactionsSql = "SELECT account_id, id, amount, type, description, created_at FROM ("
+                + "SELECT t.account_id, t.id, t.amount, t.type, t.description, t.created_at, "
+                + "ROW_NUMBER() OVER (PARTITION BY t.account_id ORDER BY t.created_at DESC, t.id DESC) AS position "
+                + "FROM transactions t JOIN accounts a ON a.id = t.account_id WHERE a.customer_id = ?"
+                + ") WHERE position <= ? ORDER BY account_id, position";
+        if (transactions > 0 && !accounts.isEmpty()) {
+            try (PreparedStatement statement = connection.prepareStatement(transactionsSql)) {
+                statement.setLong(1, customerId);
+                statement.setInt(2, transactions);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        accounts.get(rs.getLong("account_id")).recentTransactions.add(new TransactionDTO(
+                                String.valueOf(rs.getLong("id")),
+                                rs.getDouble("amount"),
+                                rs.getString("type"),
+                                rs.getString("description"),
+                                rs.getString("created_at")));
+                    }
+                }
+            }
+        }
+
+        String requestsSql = "SELECT 'account' AS queue, id, account_type, NULL AS account_id, NULL AS reason, requested_at "
+                + "FROM account_requests WHERE user_id = ? AND status = 'pending' "
+                + "UNION ALL SELECT 'account-deletion', id, NULL, account_id, reason, requested_at "
+                + "FROM account_deletion_requests WHERE user_id = ? AND status = 'pending' "
+                + "UNION ALL SELECT 'password-reset', id, NULL, NULL, NULL, requested_at "
+                + "FROM password_reset_requests WHERE user_id = ? AND status = 'pending' "
+                + "ORDER BY requested_at DESC";
+        dashboard.pendingRequests = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(requestsSql)) {
+            statement.setLong(1, customerId);
+            statement.setLong(2, customerId);
+            statement.setLong(3, customerId);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    PendingRequestDTO request = new PendingRequestDTO();
+                    request.queue = rs.getString("queue");
+                    request.id = rs.getLong("id");
+                    request.accountType = rs.getString("account_type");
+                    long accountId = rs.getLong("account_id");
+                    request.accountId = rs.wasNull() ? null : accountId;
+                    request.reason = rs.getString("reason");
+                    request.requestedAt = rs.getString("requested_at");
+                    dashboard.pendingRequests.add(request);
+                }
+            }
+        }
+        return dashboard;
+    }
+
     private static void getAccountById(Context ctx) {
         try {
             long accountId = Long.parseLong(ctx.pathParam("accountId"));
+            AuthPrincipal principal = AuthPrincipal.of(ctx);
+            if (principal.role() == Role.CUSTOMER
+                    && fetchAccountById(accountId).getCustomerId() != principal.userId()) {
+                ctx.status(HttpStatus.FORBIDDEN)
+                        .json(new ErrorResponse("FORBIDDEN", "Account does not belong to user"));
+                return;
+            }
+            if (accountVersions.notModified(ctx, accountVersions.accountTag(accountId))) {
+                return;
+            }
             AccountDTO account = fetchAccountById(accountId);
             ctx.json(account);
         } catch (Exception e) {
@@ -524,18 +769,10 @@ public class ApiServer {
 
     private static void deleteAccount(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED)
-                        .json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-
             String accountNumber = ctx.pathParam("accountNumber");
-            accountRepository.deleteAccount(accountNumber, role);
+            accountRepository.deleteAccount(accountNumber, AuthPrincipal.of(ctx).role().name());
+            accountCache.invalidateAccountNumber(accountNumber);
+            accountVersions.allChanged();
             ctx.status(HttpStatus.OK).result("Account deleted");
         } catch (IllegalStateException e) {
             ctx.status(HttpStatus.FORBIDDEN)
@@ -549,6 +786,16 @@ public class ApiServer {
     private static void getAccountTransactions(Context ctx) {
         try {
             long accountId = Long.parseLong(ctx.pathParam("accountId"));
+            AuthPrincipal principal = AuthPrincipal.of(ctx);
+            if (principal.role() == Role.CUSTOMER
+                    && fetchAccountById(accountId).getCustomerId() != principal.userId()) {
+                ctx.status(HttpStatus.FORBIDDEN)
+                        .json(new ErrorResponse("FORBIDDEN", "Account does not belong to user"));
+                return;
+            }
+            if (accountVersions.notModified(ctx, accountVersions.accountTag(accountId))) {
+                return;
+            }
             List<TransactionDTO> transactions = getTransactionsForAccount(accountId);
             ctx.json(transactions);
         } catch (Exception e) {
@@ -557,7 +804,15 @@ public class ApiServer {
         }
     }
 
-    private static void createTransaction(Context ctx) {
+    /**
+     * Retries carrying the same Idempotency-Key replay the first response instead of posting
+     * again.
+     */
+    private static void createTransaction(Context ctx) throws Exception {
+        idempotency.handle(ctx, ApiServer::postTransaction);
+    }
+
+    private static void postTransaction(Context ctx) {
         try {
             long accountId = Long.parseLong(ctx.pathParam("accountId"));
             CreateTransactionRequest request = ctx.bodyAsClass(CreateTransactionRequest.class);
@@ -569,8 +824,16 @@ public class ApiServer {
                     transactionType,
                     request.getDescription());
 
-            transactionRepository.addTransaction(accountId, transaction);
-            updateAccountBalance(accountId, request.getAmount(), transactionType);
+            long ownerId = fetchAccountById(accountId).getCustomerId();
+            AuthPrincipal principal = AuthPrincipal.of(ctx);
+            if (principal.role() == Role.CUSTOMER && ownerId != principal.userId()) {
+                ctx.status(HttpStatus.FORBIDDEN)
+                        .json(new ErrorResponse("FORBIDDEN", "Account does not belong to user"));
+                return;
+            }
+            ledger.post(accountId, transaction);
+            accountCache.invalidateAccount(accountId, ownerId);
+            accountVersions.accountChanged(accountId, ownerId);
 
             TransactionDTO dto = new TransactionDTO(
                     transaction.getId(),
@@ -579,6 +842,10 @@ public class ApiServer {
                     transaction.getDescription(),
                     transaction.getTimestamp().toString());
 
+            // The new balance reaches subscribers through the outbox (EventBusSink).
+            events.publish("transaction", Map.of("accountId", accountId, "transaction", dto),
+                    ownerId, Role.TELLER, Role.ADMIN);
+
             ctx.status(HttpStatus.CREATED).json(dto);
         } catch (IllegalStateException e) {
             // Handle insufficient funds or other state errors
@@ -590,6 +857,85 @@ public class ApiServer {
         }
     }
 
+    private static void createTransfer(Context ctx) throws Exception {
+        idempotency.handle(ctx, c -> executeTransfers(c, false));
+    }
+
+    /**
+     * Payroll-style fan-out: every transfer in the body commits, or none does.
+     */
+    private static void createTransferBatch(Context ctx) throws Exception {
+        idempotency.handle(ctx, c -> executeTransfers(c, true));
+    }
+
+    private static void executeTransfers(Context ctx, boolean batch) {
+        List<TransferRequest> requests;
+        try {
+            requests = batch
+                    ? ctx.bodyAsClass(TransferBatchRequest.class).getTransfers()
+                    : List.of(ctx.bodyAsClass(TransferRequest.class));
+        } catch (Exception e) {
+            ctx.status(HttpStatus.BAD_REQUEST).json(new ErrorResponse("BAD_REQUEST", "Invalid transfer request"));
+            return;
+        }
+        if (requests == null || requests.isEmpty()) {
+            ctx.status(HttpStatus.BAD_REQUEST).json(new ErrorResponse("BAD_REQUEST", "No transfers given"));
+            return;
+        }
+
+        // Resolve owners up front: customers may only pay out of their own accounts, and the
+        // owners are needed afterwards for cache invalidation and events.
+        AuthPrincipal principal = AuthPrincipal.of(ctx);
+        Map<Long, Long> owners = new LinkedHashMap<>();
+        List<LedgerService.Transfer> transfers = new ArrayList<>(requests.size());
+        try {
+            for (TransferRequest request : requests) {
+                long fromOwner = owners.computeIfAbsent(request.getFromAccountId(),
+                        id -> fetchAccountById(id).getCustomerId());
+                owners.computeIfAbsent(request.getToAccountId(), id -> fetchAccountById(id).getCustomerId());
+                if (principal.role() == Role.CUSTOMER && fromOwner != principal.userId()) {
+                    ctx.status(HttpStatus.FORBIDDEN)
+                            .json(new ErrorResponse("FORBIDDEN", "Customers can only transfer from their own accounts"));
+                    return;
+                }
+                transfers.add(new LedgerService.Transfer(request.getFromAccountId(), request.getToAccountId(),
+                        request.getAmount(), request.getDescription()));
+            }
+        } catch (IllegalStateException e) {
+            ctx.status(HttpStatus.NOT_FOUND).json(new ErrorResponse("NOT_FOUND", e.getMessage()));
+            return;
+        }
+
+        try {
+            List<LedgerService.TransferResult> results = ledger.transferAll(transfers);
+
+            for (LedgerService.TransferResult result : results) {
+                long fromOwner = owners.get(result.fromAccountId());
+                long toOwner = owners.get(result.toAccountId());
+                events.publish("transfer", result, fromOwner, Role.TELLER, Role.ADMIN);
+                if (toOwner != fromOwner) {
+                    events.publish("transfer", result, toOwner);
+                }
+            }
+            // New balances reach subscribers through the outbox (EventBusSink).
+            owners.forEach((accountId, ownerId) -> {
+                accountCache.invalidateAccount(accountId, ownerId);
+                accountVersions.accountChanged(accountId, ownerId);
+            });
+
+            ctx.status(HttpStatus.CREATED).json(batch ? Map.of("transfers", results) : results.get(0));
+        } catch (IllegalStateException e) {
+            ctx.status(HttpStatus.BAD_REQUEST)
+                    .json(new ErrorResponse("INSUFFICIENT_FUNDS", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            ctx.status(HttpStatus.BAD_REQUEST)
+                    .json(new ErrorResponse("BAD_REQUEST", e.getMessage()));
+        } catch (Exception e) {
+            ctx.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .json(new ErrorResponse("ERROR", e.getMessage()));
+        }
+    }
+
     private static void getAllUsers(Context ctx) {
         try {
             List<UserDTO> users = fetchAllUsers();
@@ -653,6 +999,8 @@ public class ApiServer {
             }
 
             userRepository.updateRole(userId, newRole);
+            // Existing tokens carry the old role claim.
+            tokenRevocations.revokeAllForUser(userId);
 
             // Return the updated user
             User user = getUserByUsername(username);
@@ -679,20 +1027,10 @@ public class ApiServer {
 
     private static void unlockUser(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-            if (!"admin".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN).json(new ErrorResponse("FORBIDDEN", "Only admins can unlock users"));
-                return;
-            }
-
             long userId = Long.parseLong(ctx.pathParam("userId"));
             securityService.unlockUser(userId);
+            // The lock may have been a brute-force attempt; start the user from a clean slate.
+            tokenRevocations.revokeAllForUser(userId);
             ctx.status(HttpStatus.OK).json(Map.of("message", "User unlocked successfully"));
         } catch (Exception e) {
             ctx.status(HttpStatus.BAD_REQUEST)
@@ -702,21 +1040,19 @@ public class ApiServer {
 
     private static void deleteUser(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-            if (!"admin".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN).json(new ErrorResponse("FORBIDDEN", "Only admins can delete users"));
+            long userId = Long.parseLong(ctx.pathParam("userId"));
+            IdentityCache.Identity deleted = identities.byId(userId);
+            if (deleted == null) {
+                ctx.status(HttpStatus.NOT_FOUND)
+                        .json(new ErrorResponse("NOT_FOUND", "User not found"));
                 return;
             }
 
-            long userId = Long.parseLong(ctx.pathParam("userId"));
-
-            // Delete user - CASCADE will automatically delete associated accounts
+            // Accounts live on the customer's shard, which users cannot cascade to, so the two
+            // deletes are separate transactions. Accounts go first: if the user delete then
+            // fails, the user is left without accounts and deleting it again finishes the job,
+            // whereas the other order could strand accounts with no owner.
+            accountRepository.deleteAccountsForCustomer(userId);
             String sql = "DELETE FROM users WHERE id = ?";
             try (Connection connection = dbManager.getConnection();
                     PreparedStatement statement = connection.prepareStatement(sql)) {
@@ -728,6 +1064,14 @@ public class ApiServer {
                             .json(new ErrorResponse("NOT_FOUND", "User not found"));
                     return;
                 }
+                identities.invalidate(userId);
+                securityService.forget(userId);
+                // Accounts arrive through the outbox; the cascade's requests are picked
+                // up by the next reconcile.
+                summary.userRemoved(deleted.role());
+                tokenRevocations.revokeAllForUser(userId);
+                accountCache.invalidateOwner(userId);
+                accountVersions.allChanged();
 
                 ctx.status(HttpStatus.OK).json(Map.of("message", "User and associated accounts deleted successfully"));
             }
@@ -750,7 +1094,7 @@ public class ApiServer {
         List<TransactionDTO> transactions = new ArrayList<>();
         String sql = "SELECT id, amount, type, description, created_at FROM transactions " +
                 "WHERE account_id = ? ORDER BY created_at DESC";
-        try (Connection connection = dbManager.getConnection();
+        try (Connection connection = dbManager.getConnectionForAccount(accountId);
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setLong(1, accountId);
             try (ResultSet resultSet = statement.executeQuery()) {
@@ -858,21 +1202,8 @@ public class ApiServer {
 
     private static void createUser(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            String creatorRole = null;
-
-            // Check if request is authenticated
-            if (authHeader != null && authHeader.startsWith("Bearer ")) {
-                String token = authHeader.substring(7);
-                creatorRole = JwtUtil.getRoleFromToken(token);
-
-                // If authenticated, must be admin or teller
-                if (!"admin".equalsIgnoreCase(creatorRole) && !"teller".equalsIgnoreCase(creatorRole)) {
-                    ctx.status(HttpStatus.FORBIDDEN)
-                            .json(new ErrorResponse("FORBIDDEN", "Only admins and tellers can create users"));
-                    return;
-                }
-            }
+            // RoutePolicy already limits this route to admins and tellers
+            Role creatorRole = AuthPrincipal.of(ctx).role();
 
             CreateUserRequest request = ctx.bodyAsClass(CreateUserRequest.class);
 
@@ -894,23 +1225,13 @@ public class ApiServer {
                 return;
             }
 
-            // Role validation - only enforce if authenticated
+            // Role validation
             String newRole = request.getRole().toLowerCase();
-            if (creatorRole != null) {
-                // Tellers can only create customers
-                if ("teller".equalsIgnoreCase(creatorRole) && !"customer".equals(newRole)) {
-                    ctx.status(HttpStatus.FORBIDDEN)
-                            .json(new ErrorResponse("FORBIDDEN", "Tellers can only create customers"));
-                    return;
-                }
-
-                // Only admins can create admins or tellers
-                if (("admin".equals(newRole) || "teller".equals(newRole)) &&
-                        !"admin".equalsIgnoreCase(creatorRole)) {
-                    ctx.status(HttpStatus.FORBIDDEN)
-                            .json(new ErrorResponse("FORBIDDEN", "Only admins can create admins or tellers"));
-                    return;
-                }
+            // Tellers can only create customers
+            if (creatorRole == Role.TELLER && !"customer".equals(newRole)) {
+                ctx.status(HttpStatus.FORBIDDEN)
+                        .json(new ErrorResponse("FORBIDDEN", "Tellers can only create customers"));
+                return;
             }
 
             User newUser;
@@ -934,12 +1255,15 @@ public class ApiServer {
             }
 
             userRepository.addUsers(newUser);
+            summary.userAdded(newRole);
 
             // If the new user is a customer, automatically create a checking account
             if ("customer".equals(newRole)) {
                 long userId = getUserId(newUser.getUserName());
                 String accountNumber = accountRepository.generateNewAccountNumber();
                 accountRepository.createAccount(userId, "CHECK", accountNumber, 0.0);
+                accountCache.invalidateOwner(userId);
+                accountVersions.ownerChanged(userId);
             }
 
             // Return success response as JSON
@@ -954,54 +1278,26 @@ public class ApiServer {
         }
     }
 
-    private static void updateAccountBalance(long accountId, double amount, String type) {
-        // Check for insufficient funds before debit transactions
-        if (type.equals("debit")) {
-            String checkBalanceSql = "SELECT balance FROM accounts WHERE id = ?";
-            try (Connection connection = dbManager.getConnection();
-                    PreparedStatement checkStatement = connection.prepareStatement(checkBalanceSql)) {
-                checkStatement.setLong(1, accountId);
-                try (ResultSet rs = checkStatement.executeQuery()) {
-                    if (rs.next()) {
-                        double currentBalance = rs.getDouble("balance");
-                        if (currentBalance < amount) {
-                            throw new IllegalStateException("Insufficient funds. Current balance: $" +
-                                    String.format("%.2f", currentBalance) + ", Required: $" +
-                                    String.format("%.2f", amount));
-                        }
-                    }
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException("Unable to check balance", e);
-            }
-        }
-
-        String sql = "UPDATE accounts SET balance = balance + ? WHERE id = ?";
-        try (Connection connection = dbManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            double delta = type.equals("credit") ? amount : -amount;
-            statement.setDouble(1, delta);
-            statement.setLong(2, accountId);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to update balance", e);
-        }
+    /**
+     * Tells dashboards that a request queue changed; they refetch it. requestId is null for a
+     * new request. Call once per request entering or leaving the pending state; the admin
+     * summary counts pending requests from these calls.
+     */
+    private static void publishRequestChange(String queue, String status, Long requestId, Role... roles) {
+        summary.requestChanged(queue, status);
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("queue", queue);
+        data.put("status", status);
+        data.put("requestId", requestId);
+        events.publish("request", data, EventBus.NO_CUSTOMER, roles);
     }
 
     private static String getUsernameById(long userId) {
-        String sql = "SELECT username FROM users WHERE id = ?";
-        try (Connection connection = dbManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setLong(1, userId);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return resultSet.getString("username");
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to get username", e);
+        IdentityCache.Identity identity = identities.byId(userId);
+        if (identity == null) {
+            throw new IllegalStateException("User not found");
         }
-        throw new IllegalStateException("User not found");
+        return identity.username();
     }
 
     private static String getCurrentTimestamp(long userId) {
@@ -1022,11 +1318,16 @@ public class ApiServer {
 
     private static List<AccountDTO> getAccountsByUsername(String username) {
         List<AccountDTO> accounts = new ArrayList<>();
-        String sql = "SELECT a.id, a.customer_id, a.account_type, a.account_number, a.balance, a.created_at, " +
+        String sql = "SELECT a.id, a.customer_id, a.account_type, a.account_number, " + LedgerService.BALANCE_SQL +
+                " AS balance, a.created_at, " +
                 "u.first_name, u.last_name FROM accounts a " +
                 "JOIN users u ON u.id = a.customer_id " +
                 "WHERE u.username = ?";
-        try (Connection connection = dbManager.getConnection();
+        IdentityCache.Identity owner = identities.byUsername(username);
+        if (owner == null) {
+            return accounts;
+        }
+        try (Connection connection = dbManager.getConnectionForCustomer(owner.id());
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setString(1, username);
             try (ResultSet resultSet = statement.executeQuery()) {
@@ -1048,11 +1349,16 @@ public class ApiServer {
     }
 
     private static AccountDTO fetchAccountById(long accountId) {
-        String sql = "SELECT a.id, a.customer_id, a.account_type, a.account_number, a.balance, a.created_at, " +
+        return accountCache.getById(accountId, () -> queryAccountById(accountId));
+    }
+
+    private static AccountDTO queryAccountById(long accountId) {
+        String sql = "SELECT a.id, a.customer_id, a.account_type, a.account_number, " + LedgerService.BALANCE_SQL +
+                " AS balance, a.created_at, " +
                 "u.first_name, u.last_name FROM accounts a " +
                 "JOIN users u ON u.id = a.customer_id " +
                 "WHERE a.id = ?";
-        try (Connection connection = dbManager.getConnection();
+        try (Connection connection = dbManager.getConnectionForAccount(accountId);
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setLong(1, accountId);
             try (ResultSet resultSet = statement.executeQuery()) {
@@ -1075,21 +1381,29 @@ public class ApiServer {
 
     private static List<AccountDTO> getAllAccountsFromDB() {
         List<AccountDTO> accounts = new ArrayList<>();
-        String sql = "SELECT a.id, a.customer_id, a.account_type, a.account_number, a.balance, a.created_at, " +
+        String sql = "SELECT a.id, a.customer_id, a.account_type, a.account_number, " + LedgerService.BALANCE_SQL +
+                " AS balance, a.created_at, " +
                 "u.first_name, u.last_name FROM accounts a " +
                 "JOIN users u ON u.id = a.customer_id";
-        try (Connection connection = dbManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql);
-                ResultSet resultSet = statement.executeQuery()) {
-            while (resultSet.next()) {
-                accounts.add(new AccountDTO(
-                        resultSet.getLong("id"),
-                        resultSet.getLong("customer_id"),
-                        resultSet.getString("account_type").toLowerCase(),
-                        resultSet.getString("account_number"),
-                        resultSet.getDouble("balance"),
-                        resultSet.getString("created_at"),
-                        resultSet.getString("first_name") + " " + resultSet.getString("last_name")));
+        try {
+            for (List<AccountDTO> shardAccounts : dbManager.forEachShard(connection -> {
+                List<AccountDTO> rows = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement(sql);
+                        ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        rows.add(new AccountDTO(
+                                resultSet.getLong("id"),
+                                resultSet.getLong("customer_id"),
+                                resultSet.getString("account_type").toLowerCase(),
+                                resultSet.getString("account_number"),
+                                resultSet.getDouble("balance"),
+                                resultSet.getString("created_at"),
+                                resultSet.getString("first_name") + " " + resultSet.getString("last_name")));
+                    }
+                }
+                return rows;
+            })) {
+                accounts.addAll(shardAccounts);
             }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to get all accounts", e);
@@ -1098,35 +1412,19 @@ public class ApiServer {
     }
 
     private static long getUserId(String username) {
-        String sql = "SELECT id FROM users WHERE username = ?";
-        try (Connection connection = dbManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, username);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return resultSet.getLong("id");
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to get user ID", e);
+        IdentityCache.Identity identity = identities.byUsername(username);
+        if (identity == null) {
+            throw new IllegalStateException("User not found");
         }
-        throw new IllegalStateException("User not found");
+        return identity.id();
     }
 
     private static String getRoleForUser(String username) {
-        String sql = "SELECT role FROM users WHERE username = ?";
-        try (Connection connection = dbManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, username);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return resultSet.getString("role");
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to get user role", e);
+        IdentityCache.Identity identity = identities.byUsername(username);
+        if (identity == null) {
+            throw new IllegalStateException("User not found");
         }
-        throw new IllegalStateException("User not found");
+        return identity.role();
     }
 
     private static User getUserByUsername(String username) {
@@ -1141,6 +1439,31 @@ public class ApiServer {
         throw new IllegalStateException("User not found");
     }
 
+    private static class CustomerDashboardDTO {
+        public long customerId;
+        public double totalBalance;
+        public List<DashboardAccountDTO> accounts;
+        public List<PendingRequestDTO> pendingRequests;
+    }
+
+    private static class DashboardAccountDTO extends AccountDTO {
+        public final List<TransactionDTO> recentTransactions = new ArrayList<>();
+
+        DashboardAccountDTO(long id, long customerId, String accountType, String accountNumber, double balance,
+                String createdAt, String customerName) {
+            super(id, customerId, accountType, accountNumber, balance, createdAt, customerName);
+        }
+    }
+
+    private static class PendingRequestDTO {
+        public String queue;
+        public long id;
+        public String accountType;
+        public Long accountId;
+        public String reason;
+        public String requestedAt;
+    }
+
     private static class SearchResponse {
         public List<AccountDTO> accounts;
         public int totalAccounts;
@@ -1171,14 +1494,9 @@ public class ApiServer {
 
     private static void requestAccount(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String username = JwtUtil.getUsernameFromToken(token);
-            long userId = getUserId(username);
+            AuthPrincipal principal = AuthPrincipal.of(ctx);
+            String username = principal.username();
+            long userId = principal.userId();
 
             Map<String, String> body = ctx.bodyAsClass(Map.class);
             String accountType = body.get("accountType");
@@ -1197,6 +1515,7 @@ public class ApiServer {
                 statement.setLong(1, userId);
                 statement.setString(2, accountType);
                 statement.executeUpdate();
+                publishRequestChange("account", "pending", null, Role.TELLER, Role.ADMIN);
 
                 ctx.status(HttpStatus.CREATED)
                         .json(Map.of("message", "Account request created successfully"));
@@ -1209,20 +1528,6 @@ public class ApiServer {
 
     private static void getAccountRequests(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-
-            if (!"admin".equalsIgnoreCase(role) && !"teller".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN)
-                        .json(new ErrorResponse("FORBIDDEN", "Only admins and tellers can view account requests"));
-                return;
-            }
-
             List<AccountRequestDTO> requests = new ArrayList<>();
             String sql = "SELECT ar.id, ar.user_id, u.username, ar.account_type, ar.status, ar.requested_at, ar.resolved_at "
                     +
@@ -1254,20 +1559,6 @@ public class ApiServer {
 
     private static void approveAccountRequest(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-
-            if (!"admin".equalsIgnoreCase(role) && !"teller".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN)
-                        .json(new ErrorResponse("FORBIDDEN", "Only admins and tellers can approve account requests"));
-                return;
-            }
-
             long requestId = Long.parseLong(ctx.pathParam("requestId"));
 
             // Get request details
@@ -1311,7 +1602,7 @@ public class ApiServer {
             // Check if account already exists (Only for Checking accounts)
             if ("CHECK".equals(bankAccountType)) {
                 String checkSql = "SELECT 1 FROM accounts WHERE customer_id = ? AND account_type = ?";
-                try (Connection connection = dbManager.getConnection();
+                try (Connection connection = dbManager.getConnectionForCustomer(userId);
                         PreparedStatement statement = connection.prepareStatement(checkSql)) {
                     statement.setLong(1, userId);
                     statement.setString(2, bankAccountType);
@@ -1326,13 +1617,18 @@ public class ApiServer {
             }
 
             accountRepository.createAccount(userId, bankAccountType, accountNumber, 0.0);
+            accountCache.invalidateOwner(userId);
+            accountVersions.ownerChanged(userId);
 
             // Update request status
-            String updateSql = "UPDATE account_requests SET status = 'approved', resolved_at = datetime('now') WHERE id = ?";
+            String updateSql = "UPDATE account_requests SET status = 'approved', resolved_at = datetime('now') "
+                    + "WHERE id = ? AND status = 'pending'";
             try (Connection connection = dbManager.getConnection();
                     PreparedStatement statement = connection.prepareStatement(updateSql)) {
                 statement.setLong(1, requestId);
-                statement.executeUpdate();
+                if (statement.executeUpdate() > 0) {
+                    publishRequestChange("account", "approved", requestId, Role.TELLER, Role.ADMIN);
+                }
             }
 
             ctx.status(HttpStatus.OK).json(Map.of("message", "Account request approved and account created"));
@@ -1344,28 +1640,16 @@ public class ApiServer {
 
     private static void rejectAccountRequest(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-
-            if (!"admin".equalsIgnoreCase(role) && !"teller".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN)
-                        .json(new ErrorResponse("FORBIDDEN", "Only admins and tellers can reject account requests"));
-                return;
-            }
-
             long requestId = Long.parseLong(ctx.pathParam("requestId"));
-            String sql = "UPDATE account_requests SET status = 'rejected', resolved_at = datetime('now') WHERE id = ?";
+            String sql = "UPDATE account_requests SET status = 'rejected', resolved_at = datetime('now') "
+                    + "WHERE id = ? AND status = 'pending'";
 
             try (Connection connection = dbManager.getConnection();
                     PreparedStatement statement = connection.prepareStatement(sql)) {
                 statement.setLong(1, requestId);
                 int rows = statement.executeUpdate();
                 if (rows > 0) {
+                    publishRequestChange("account", "rejected", requestId, Role.TELLER, Role.ADMIN);
                     ctx.status(HttpStatus.OK).json(Map.of("message", "Account request rejected"));
                 } else {
                     ctx.status(HttpStatus.NOT_FOUND).json(new ErrorResponse("NOT_FOUND", "Request not found"));
@@ -1414,14 +1698,9 @@ public class ApiServer {
 
     private static void requestAccountDeletion(Context ctx) {
         try {
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String username = JwtUtil.getUsernameFromToken(token);
-            long userId = getUserId(username);
+            AuthPrincipal principal = AuthPrincipal.of(ctx);
+            String username = principal.username();
+            long userId = principal.userId();
             long accountId = Long.parseLong(ctx.pathParam("accountId"));
 
             // Verify account belongs to user
@@ -1452,6 +1731,7 @@ public class ApiServer {
                 statement.setLong(2, accountId);
                 statement.setString(3, reason);
                 statement.executeUpdate();
+                publishRequestChange("account-deletion", "pending", null, Role.ADMIN);
 
                 ctx.status(HttpStatus.CREATED)
                         .json(Map.of("message", "Account deletion request created successfully"));
@@ -1464,25 +1744,12 @@ public class ApiServer {
 
     private static void getAccountDeletionRequests(Context ctx) {
         try {
-            // Only admins can view deletion requests
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-            if (!"admin".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN).json(new ErrorResponse("FORBIDDEN", "Only admins can view requests"));
-                return;
-            }
-
             List<AccountDeletionRequestDTO> requests = new ArrayList<>();
-            String sql = "SELECT adr.id, adr.user_id, u.username, adr.account_id, a.account_number, a.account_type, " +
+            // Accounts may live on another shard than the requests, so they are joined here.
+            String sql = "SELECT adr.id, adr.user_id, u.username, adr.account_id, " +
                     "adr.status, adr.reason, adr.requested_at, adr.resolved_at " +
                     "FROM account_deletion_requests adr " +
                     "JOIN users u ON u.id = adr.user_id " +
-                    "JOIN accounts a ON a.id = adr.account_id " +
                     "WHERE adr.status = 'pending' " +
                     "ORDER BY adr.requested_at DESC";
 
@@ -1490,13 +1757,19 @@ public class ApiServer {
                     PreparedStatement statement = connection.prepareStatement(sql);
                     ResultSet rs = statement.executeQuery()) {
                 while (rs.next()) {
+                    AccountDTO account;
+                    try {
+                        account = fetchAccountById(rs.getLong("account_id"));
+                    } catch (IllegalStateException e) {
+                        continue; // Account already gone.
+                    }
                     requests.add(new AccountDeletionRequestDTO(
                             rs.getLong("id"),
                             rs.getLong("user_id"),
                             rs.getString("username"),
                             rs.getLong("account_id"),
-                            rs.getString("account_number"),
-                            rs.getString("account_type"),
+                            account.getAccountNumber(),
+                            account.getAccountType().toUpperCase(),
                             rs.getString("status"),
                             rs.getString("reason"),
                             rs.getString("requested_at"),
@@ -1512,20 +1785,6 @@ public class ApiServer {
 
     private static void approveAccountDeletion(Context ctx) {
         try {
-            // Only admins can approve
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-            if (!"admin".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN)
-                        .json(new ErrorResponse("FORBIDDEN", "Only admins can approve requests"));
-                return;
-            }
-
             long requestId = Long.parseLong(ctx.pathParam("requestId"));
 
             // Get request details
@@ -1550,13 +1809,18 @@ public class ApiServer {
             // role)
             AccountDTO account = fetchAccountById(accountId);
             accountRepository.deleteAccount(account.getAccountNumber(), "ADMIN");
+            accountCache.invalidateAccount(accountId, account.getCustomerId());
+            accountVersions.accountChanged(accountId, account.getCustomerId());
 
             // Update request status
-            String updateSql = "UPDATE account_deletion_requests SET status = 'approved', resolved_at = datetime('now') WHERE id = ?";
+            String updateSql = "UPDATE account_deletion_requests SET status = 'approved', resolved_at = datetime('now') "
+                    + "WHERE id = ? AND status = 'pending'";
             try (Connection connection = dbManager.getConnection();
                     PreparedStatement statement = connection.prepareStatement(updateSql)) {
                 statement.setLong(1, requestId);
-                statement.executeUpdate();
+                if (statement.executeUpdate() > 0) {
+                    publishRequestChange("account-deletion", "approved", requestId, Role.ADMIN);
+                }
             }
 
             ctx.status(HttpStatus.OK).json(Map.of("message", "Account deletion approved and account deleted"));
@@ -1568,28 +1832,16 @@ public class ApiServer {
 
     private static void rejectAccountDeletion(Context ctx) {
         try {
-            // Only admins can reject
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(HttpStatus.UNAUTHORIZED).json(new ErrorResponse("UNAUTHORIZED", "Missing token"));
-                return;
-            }
-            String token = authHeader.substring(7);
-            String role = JwtUtil.getRoleFromToken(token);
-            if (!"admin".equalsIgnoreCase(role)) {
-                ctx.status(HttpStatus.FORBIDDEN)
-                        .json(new ErrorResponse("FORBIDDEN", "Only admins can reject requests"));
-                return;
-            }
-
             long requestId = Long.parseLong(ctx.pathParam("requestId"));
-            String sql = "UPDATE account_deletion_requests SET status = 'rejected', resolved_at = datetime('now') WHERE id = ?";
+            String sql = "UPDATE account_deletion_requests SET status = 'rejected', resolved_at = datetime('now') "
+                    + "WHERE id = ? AND status = 'pending'";
 
             try (Connection connection = dbManager.getConnection();
                     PreparedStatement statement = connection.prepareStatement(sql)) {
                 statement.setLong(1, requestId);
                 int rows = statement.executeUpdate();
                 if (rows > 0) {
+                    publishRequestChange("account-deletion", "rejected", requestId, Role.ADMIN);
                     ctx.status(HttpStatus.OK).json(Map.of("message", "Account deletion request rejected"));
                 } else {
                     ctx.status(HttpStatus.NOT_FOUND).json(new ErrorResponse("NOT_FOUND", "Request not found"));
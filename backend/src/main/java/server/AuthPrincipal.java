@@ -0,0 +1,29 @@
+package server;
+
+import io.jsonwebtoken.Claims;
+import io.javalin.http.Context;
+
+/**
+ * The caller behind a request, taken from a verified JWT by {@link AuthFilter} and attached to
+ * the Context. Handlers read it instead of parsing the Authorization header themselves.
+ */
+public record AuthPrincipal(long userId, String username, Role role, String tokenId, long expiresAtMillis) {
+    static final String ATTRIBUTE = "auth.principal";
+
+    static AuthPrincipal fromClaims(Claims claims) {
+        Number userId = claims.get("userId", Number.class);
+        return new AuthPrincipal(
+                userId == null ? -1 : userId.longValue(),
+                claims.getSubject(),
+                Role.fromName(claims.get("role", String.class)),
+                claims.getId(),
+                claims.getExpiration() == null ? 0 : claims.getExpiration().getTime());
+    }
+
+    /**
+     * The authenticated caller, or null on public routes called without a token.
+     */
+    public static AuthPrincipal of(Context ctx) {
+        return ctx.attribute(ATTRIBUTE);
+    }
+}
@@ -0,0 +1,134 @@
+package server;
+
+import com.google.gson.Gson;
+import io.javalin.http.sse.SseClient;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process fan-out of account and request-queue changes to Server-Sent Event streams
+ * (GET /api/events), so dashboards can stop re-querying after every change.
+ *
+ * Handlers call {@link #publish} after their write commits. Publishing serializes the payload
+ * once and offers it to each interested subscriber's bounded queue; it never blocks and never
+ * writes to a socket. Each stream drains its own queue on its own request thread, so a slow
+ * client only holds up itself. A subscriber whose queue is full is evicted: its stream is
+ * closed and the browser's EventSource reconnects and reloads, which is cheaper than buffering
+ * without limit.
+ *
+ * Events are not replayed; a reconnecting client should refetch what it shows.
+ */
+public class EventBus {
+    public static final String PATH = "/api/events";
+    // For events that concern no single customer.
+    public static final long NO_CUSTOMER = -1;
+
+    private static final int BUFFER_SIZE = Integer.getInteger("bank.events.bufferSize", 256);
+    // Comment lines keep proxies from timing the stream out and reveal closed connections.
+    private static final long HEARTBEAT_SECONDS = 15;
+
+    private record Event(long id, String name, String json, long customerId, int roles) {
+    }
+
+    private static final class Subscriber {
+        final long userId;
+        final int roleBit;
+        final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        volatile boolean evicted;
+
+        Subscriber(long userId, Role role) {
+            this.userId = userId;
+            this.roleBit = role.bit();
+        }
+
+        boolean wants(Event event) {
+            return event.customerId() == userId || (event.roles() & roleBit) != 0;
+        }
+    }
+
+    private final Gson gson;
+    // Read on every publish, written only on connect and disconnect.
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public EventBus(Gson gson) {
+        this.gson = gson;
+    }
+
+    /**
+     * Queues an event for the customer it concerns (NO_CUSTOMER for none) and for every
+     * subscriber holding one of the given roles.
+     */
+    public void publish(String name, Object data, long customerId, Role... roles) {
+        published.increment();
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        Event event = new Event(nextId.incrementAndGet(), name, gson.toJson(data), customerId, Role.mask(roles));
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.wants(event) || subscriber.evicted) {
+                continue;
+            }
+            if (!subscriber.queue.offer(event)) {
+                subscriber.evicted = true;
+                subscribers.remove(subscriber);
+                evicted.increment();
+            }
+        }
+    }
+
+    /**
+     * SSE handler. Runs for the life of the stream on the request's (virtual) thread, writing
+     * queued events until the client disconnects or is evicted.
+     */
+    public void stream(SseClient client) {
+        AuthPrincipal principal = AuthPrincipal.of(client.ctx());
+        Subscriber subscriber = new Subscriber(principal.userId(), principal.role());
+        subscribers.add(subscriber);
+        try {
+            client.sendComment("connected");
+            while (!client.terminated() && !subscriber.evicted) {
+                Event event = subscriber.queue.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                if (event == null) {
+                    client.sendComment("heartbeat");
+                } else {
+                    client.sendEvent(event.name(), event.json(), Long.toString(event.id()));
+                    delivered.increment();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscribers.remove(subscriber);
+            client.close();
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    /**
+     * Subscribers dropped because their buffer filled up.
+     */
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+}
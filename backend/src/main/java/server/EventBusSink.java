@@ -0,0 +1,35 @@
+package server;
+
+import bank.Outbox;
+import bank.OutboxEvent;
+import bank.OutboxSink;
+import com.google.gson.JsonParser;
+
+import java.util.List;
+
+/**
+ * Feeds committed outbox events to the {@link EventBus}, so SSE subscribers see balance,
+ * account and role changes however they were made, including by other processes writing the
+ * same database. The payload is forwarded as the event data unchanged.
+ */
+public class EventBusSink implements OutboxSink {
+    private final EventBus events;
+
+    public EventBusSink(EventBus events) {
+        this.events = events;
+    }
+
+    @Override
+    public void publish(List<OutboxEvent> batch) {
+        for (OutboxEvent event : batch) {
+            Object data = JsonParser.parseString(event.payload());
+            switch (event.topic()) {
+                case Outbox.BALANCE, Outbox.ACCOUNT -> events.publish(event.topic(), data,
+                        event.customerId(), Role.TELLER, Role.ADMIN);
+                // The user whose role changed, and admins.
+                case Outbox.ROLE -> events.publish(event.topic(), data, event.aggregateId(), Role.ADMIN);
+                default -> System.err.println("Unknown outbox topic " + event.topic() + ", not published");
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package server;
+
+import io.javalin.http.Context;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.Map;
+
+/**
+ * Java Flight Recorder event covering one matched HTTP request, from route match until the
+ * after-filters run. Nested {@link bank.RepositoryEvent}s on the same thread show where the
+ * handler spent its DB time.
+ */
+@Name("bank.HttpHandler")
+@Label("HTTP Handler")
+@Category({ "BankUml", "HTTP" })
+@Description("A matched ApiServer request")
+@StackTrace(false)
+public class HandlerEvent extends Event {
+    static final String ATTRIBUTE = "jfr.handlerEvent";
+
+    @Label("Route")
+    public String route;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Account Id")
+    public long accountId;
+
+    @Label("User Id")
+    @Description("User or customer id taken from the route")
+    public long userId;
+
+    @Label("Caller")
+    @Description("Username of the authenticated caller, if any")
+    public String caller;
+
+    /**
+     * Registered as a beforeMatched filter so the route template and path params are known.
+     */
+    static void begin(Context ctx) {
+        HandlerEvent event = new HandlerEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.route = ctx.endpointHandlerPath();
+        event.method = ctx.method().name();
+        Map<String, String> params = ctx.pathParamMap();
+        event.accountId = parseId(params.get("accountId"));
+        event.userId = parseId(params.getOrDefault("userId", params.get("customerId")));
+        event.begin();
+        ctx.attribute(ATTRIBUTE, event);
+    }
+
+    /**
+     * Registered as an after filter; does nothing for unmatched requests or when JFR is off.
+     */
+    static void end(Context ctx) {
+        HandlerEvent event = ctx.attribute(ATTRIBUTE);
+        if (event == null) {
+            return;
+        }
+        event.status = ctx.statusCode();
+        AuthPrincipal principal = AuthPrincipal.of(ctx);
+        if (principal != null) {
+            event.caller = principal.username();
+        }
+        event.commit();
+    }
+
+    private static long parseId(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package server;
+
+import bank.DatabaseManager;
+import bank.RepositoryEvent;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HttpStatus;
+import server.dto.ErrorResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Makes a POST safe to retry when the client sends an Idempotency-Key header. The first request
+ * with a key runs the handler and its response (status and body) is stored in the
+ * idempotency_keys table; later requests from the same user with the same key get that stored
+ * response back, marked with Idempotent-Replayed, without running the handler again.
+ *
+ * A duplicate that arrives while the first one is still running waits for it and replays its
+ * result instead of racing it. The most recent completed entries (bank.idempotency.cacheSize)
+ * are also kept in memory, so most replays do not read the table. Server errors (5xx) are not stored: nothing is known to have happened, so
+ * the client may retry with the same key. Entries expire after bank.idempotency.ttlHours.
+ *
+ * The stored response is written after the handler's own statements, not in the same
+ * transaction, so a crash between the two can still let a retry run again.
+ */
+public class IdempotencyStore {
+    public static final String HEADER = "Idempotency-Key";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("bank.idempotency.ttlHours", 24));
+    private static final int MAX_CACHED = Integer.getInteger("bank.idempotency.cacheSize", 10_000);
+    private static final long SWEEP_INTERVAL_MINUTES = 10;
+
+    private record Stored(String fingerprint, int status, String body, long createdAt) {
+    }
+
+    private record Cached(String entryKey, CompletableFuture<Stored> future) {
+    }
+
+    private final DatabaseManager dbManager;
+    // userId:key -> the stored response, or an incomplete future while the first request runs.
+    // Completes with null if that request failed without a storable response.
+    private final Map<String, CompletableFuture<Stored>> entries = new ConcurrentHashMap<>();
+    // Completed entries, oldest first; trimmed from the front once entries passes MAX_CACHED.
+    private final ConcurrentLinkedQueue<Cached> completed = new ConcurrentLinkedQueue<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    public IdempotencyStore(DatabaseManager dbManager) {
+        this.dbManager = dbManager;
+    }
+
+    /**
+     * Creates the table and starts the expiry sweep.
+     */
+    public void initialize() {
+        try (Connection conn = dbManager.getConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS idempotency_keys (" +
+                    "user_id INTEGER NOT NULL," +
+                    "idempotency_key TEXT NOT NULL," +
+                    "fingerprint TEXT NOT NULL," +
+                    "status INTEGER NOT NULL," +
+                    "body TEXT," +
+                    "created_at INTEGER NOT NULL," +
+                    "PRIMARY KEY (user_id, idempotency_key)" +
+                    ");");
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to initialize idempotency table", e);
+        }
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "idempotency-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                System.err.println("Error sweeping idempotency keys: " + e.getMessage());
+            }
+        }, SWEEP_INTERVAL_MINUTES, SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Runs the handler once per (caller, key). Requests without the header run it directly.
+     */
+    public void handle(Context ctx, Handler handler) throws Exception {
+        String key = ctx.header(HEADER);
+        if (key == null) {
+            handler.handle(ctx);
+            return;
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            ctx.status(HttpStatus.BAD_REQUEST)
+                    .json(new ErrorResponse("BAD_REQUEST", HEADER + " must be 1-" + MAX_KEY_LENGTH + " characters"));
+            return;
+        }
+        long userId = AuthPrincipal.of(ctx).userId();
+        String entryKey = userId + ":" + key;
+        String fingerprint = fingerprint(ctx);
+
+        while (true) {
+            CompletableFuture<Stored> mine = new CompletableFuture<>();
+            CompletableFuture<Stored> existing = entries.putIfAbsent(entryKey, mine);
+            if (existing != null) {
+                if (!existing.isDone()) {
+                    coalesced.increment();
+                }
+                Stored stored = existing.join();
+                if (stored == null || expired(stored)) {
+                    // The first attempt left nothing to replay; compete to run it again.
+                    entries.remove(entryKey, existing);
+                    continue;
+                }
+                replay(ctx, stored, fingerprint);
+                return;
+            }
+
+            Stored stored = null;
+            try {
+                stored = load(userId, key);
+                if (stored != null) {
+                    replay(ctx, stored, fingerprint);
+                    return;
+                }
+                handler.handle(ctx);
+                executed.increment();
+                stored = capture(ctx, fingerprint);
+                if (stored != null) {
+                    save(userId, key, stored);
+                }
+            } finally {
+                mine.complete(stored);
+                if (stored == null) {
+                    entries.remove(entryKey, mine);
+                } else {
+                    completed.add(new Cached(entryKey, mine));
+                    evictOldest();
+                }
+            }
+            return;
+        }
+    }
+
+    // Evicted keys are still in the table; only their fast path is lost.
+    private void evictOldest() {
+        while (entries.size() > MAX_CACHED) {
+            Cached oldest = completed.poll();
+            if (oldest == null) {
+                return;
+            }
+            entries.remove(oldest.entryKey(), oldest.future());
+        }
+    }
+
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    public long getReplayedCount() {
+        return replayed.sum();
+    }
+
+    /**
+     * Duplicates that arrived while the original was still running.
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Keys reused for a different request (rejected with 422).
+     */
+    public long getConflictCount() {
+        return conflicts.sum();
+    }
+
+    private void replay(Context ctx, Stored stored, String fingerprint) {
+        if (!stored.fingerprint().equals(fingerprint)) {
+            conflicts.increment();
+            ctx.status(HttpStatus.UNPROCESSABLE_CONTENT)
+                    .json(new ErrorResponse("IDEMPOTENCY_KEY_REUSED",
+                            HEADER + " was already used for a different request"));
+            return;
+        }
+        replayed.increment();
+        ctx.header("Idempotent-Replayed", "true");
+        ctx.status(stored.status()).contentType("application/json").result(stored.body() == null ? "" : stored.body());
+    }
+
+    private static Stored capture(Context ctx, String fingerprint) throws IOException {
+        if (ctx.statusCode() >= 500) {
+            return null;
+        }
+        String body = null;
+        InputStream result = ctx.resultInputStream();
+        if (result != null) {
+            byte[] bytes = result.readAllBytes();
+            ctx.result(bytes);
+            body = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new Stored(fingerprint, ctx.statusCode(), body, System.currentTimeMillis());
+    }
+
+    private Stored load(long userId, String key) {
+        String sql = "SELECT fingerprint, status, body, created_at FROM idempotency_keys " +
+                "WHERE user_id = ? AND idempotency_key = ? AND created_at > ?";
+        RepositoryEvent event = RepositoryEvent.start("IdempotencyStore.load");
+        event.userId = userId;
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, userId);
+            stmt.setString(2, key);
+            stmt.setLong(3, System.currentTimeMillis() - TTL_MILLIS);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                event.rows = 1;
+                return new Stored(rs.getString("fingerprint"), rs.getInt("status"), rs.getString("body"),
+                        rs.getLong("created_at"));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to look up idempotency key", e);
+        } finally {
+            event.commit();
+        }
+    }
+
+    private void save(long userId, String key, Stored stored) {
+        // REPLACE: an expired row for the same key may not have been swept yet.
+        String sql = "INSERT OR REPLACE INTO idempotency_keys " +
+                "(user_id, idempotency_key, fingerprint, status, body, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+        RepositoryEvent event = RepositoryEvent.start("IdempotencyStore.save");
+        event.userId = userId;
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, userId);
+            stmt.setString(2, key);
+            stmt.setString(3, stored.fingerprint());
+            stmt.setInt(4, stored.status());
+            stmt.setString(5, stored.body());
+            stmt.setLong(6, stored.createdAt());
+            event.rows = stmt.executeUpdate();
+        } catch (SQLException e) {
+            // The request itself succeeded; losing the row only makes a later retry unsafe.
+            System.err.println("Failed to store idempotency key for user " + userId + ": " + e.getMessage());
+        } finally {
+            event.commit();
+        }
+    }
+
+    void sweep() {
+        long cutoff = System.currentTimeMillis() - TTL_MILLIS;
+        RepositoryEvent event = RepositoryEvent.start("IdempotencyStore.sweep");
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement("DELETE FROM idempotency_keys WHERE created_at <= ?")) {
+            stmt.setLong(1, cutoff);
+            event.rows = stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to sweep idempotency keys", e);
+        } finally {
+            event.commit();
+        }
+        entries.values().removeIf(future -> future.isDone() && expired(future.join()));
+        completed.removeIf(cached -> entries.get(cached.entryKey()) != cached.future());
+    }
+
+    private static boolean expired(Stored stored) {
+        return stored != null && stored.createdAt() <= System.currentTimeMillis() - TTL_MILLIS;
+    }
+
+    // Same key, different request (another account or amount) is a client bug, not a retry.
+    private static String fingerprint(Context ctx) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ctx.path().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(ctx.bodyAsBytes());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
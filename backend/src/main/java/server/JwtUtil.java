@@ -1,19 +1,42 @@
 package server;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class JwtUtil {
     private static final String SECRET_KEY = "MyBankUML_Secret_Key_For_JWT_Tokens_Must_Be_At_Least_256_Bits_Long";
-    private static final long EXPIRATION_TIME = 86400000; // 24 hours in milliseconds
+    static final long EXPIRATION_TIME = 86400000; // 24 hours in milliseconds
     private static final SecretKey KEY = Keys.hmacShaKeyFor(SECRET_KEY.getBytes());
+    // Parsers are immutable and thread-safe, so one instance serves every request.
+    private static final JwtParser PARSER = Jwts.parser().verifyWith(KEY).build();
+
+    // Verified claims keyed by the SHA-256 of the token, so raw bearer tokens are never held
+    // in memory. Entries are dropped once the token expires.
+    private static final int CACHE_SIZE = Integer.getInteger("bank.jwt.cacheSize", 10_000);
+    private static final Map<String, CachedClaims> CLAIMS_CACHE = new ConcurrentHashMap<>();
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static final LongAdder CACHE_MISSES = new LongAdder();
+
+    private record CachedClaims(Claims claims, long expiresAtMillis) {
+    }
 
     public static String generateToken(String username, String role, long userId) {
         return Jwts.builder()
+                .id(UUID.randomUUID().toString())
                 .subject(username)
                 .claim("role", role)
                 .claim("userId", userId)
@@ -23,12 +46,33 @@ public class JwtUtil {
                 .compact();
     }
 
+    /**
+     * Returns the verified claims for the token. A token seen before is answered from the
+     * cache without re-checking the signature; expired or invalid tokens always go through
+     * the parser so callers still get the usual JwtException.
+     */
     public static Claims validateToken(String token) {
-        return Jwts.parser()
-                .verifyWith(KEY)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+        String digest = digest(token);
+        CachedClaims cached = CLAIMS_CACHE.get(digest);
+        long now = System.currentTimeMillis();
+        if (cached != null) {
+            if (now < cached.expiresAtMillis()) {
+                CACHE_HITS.increment();
+                return cached.claims();
+            }
+            CLAIMS_CACHE.remove(digest, cached);
+        }
+
+        CACHE_MISSES.increment();
+        Claims claims = PARSER.parseSignedClaims(token).getPayload();
+        Date expiration = claims.getExpiration();
+        if (expiration != null && CACHE_SIZE > 0) {
+            if (CLAIMS_CACHE.size() >= CACHE_SIZE) {
+                evict(now);
+            }
+            CLAIMS_CACHE.put(digest, new CachedClaims(claims, expiration.getTime()));
+        }
+        return claims;
     }
 
     public static String getUsernameFromToken(String token) {
@@ -40,6 +84,43 @@ public class JwtUtil {
     }
 
     public static Long getUserIdFromToken(String token) {
-        return validateToken(token).get("userId", Long.class);
+        // Gson hands JSON numbers back as Double, so read the claim as a Number.
+        Number userId = validateToken(token).get("userId", Number.class);
+        return userId == null ? null : userId.longValue();
+    }
+
+    public static long getCacheHits() {
+        return CACHE_HITS.sum();
+    }
+
+    public static long getCacheMisses() {
+        return CACHE_MISSES.sum();
+    }
+
+    public static int getCacheSize() {
+        return CLAIMS_CACHE.size();
+    }
+
+    /**
+     * Drops expired entries; if the cache is still full, drops an arbitrary tenth of it.
+     * Evicted tokens simply get verified again on their next use.
+     */
+    private static void evict(long now) {
+        CLAIMS_CACHE.values().removeIf(cached -> cached.expiresAtMillis() <= now);
+        int excess = CLAIMS_CACHE.size() - CACHE_SIZE + Math.max(1, CACHE_SIZE / 10);
+        Iterator<String> keys = CLAIMS_CACHE.keySet().iterator();
+        while (excess-- > 0 && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
 }
@@ -0,0 +1,155 @@
+package server;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+import server.dto.ErrorResponse;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static io.javalin.http.HandlerType.GET;
+import static io.javalin.http.HandlerType.POST;
+
+/**
+ * Per-route token buckets, keyed by the authenticated user or, on public routes, the remote
+ * address. Registered as a beforeMatched filter after {@link AuthFilter} and before any handler
+ * touches the database; a caller over the limit gets 429 with a Retry-After header.
+ *
+ * Each bucket is a single AtomicLong and is refilled lazily from the clock when it is used, so
+ * there is no lock and no timer per bucket. Full buckets carry no state worth keeping and are
+ * evicted by a periodic sweep.
+ */
+public class RateLimiter {
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("bank.rateLimit.enabled", "true"));
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private record Limit(HandlerType method, String path, int capacity, long nanosPerToken) {
+    }
+
+    // Routes that write on failure (login) or run unbounded queries (search). Other routes
+    // are not limited.
+    private static final List<Limit> LIMITS = List.of(
+            limit(POST, "/api/auth/login", 10, Duration.ofMinutes(1)),
+            limit(POST, "/api/auth/password-reset/request", 5, Duration.ofMinutes(15)),
+            limit(GET, "/api/accounts/search", 60, Duration.ofMinutes(1)),
+            limit(GET, "/api/users/search", 60, Duration.ofMinutes(1)));
+
+    private final Map<HandlerType, Map<String, Limit>> limits = new EnumMap<>(HandlerType.class);
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+
+    public RateLimiter() {
+        for (Limit limit : LIMITS) {
+            limits.computeIfAbsent(limit.method(), m -> new HashMap<>()).put(limit.path(), limit);
+        }
+    }
+
+    /**
+     * Starts evicting idle buckets on a daemon thread.
+     */
+    public void start() {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rate-limit-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::evictIdle, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    void limit(Context ctx) {
+        if (!ENABLED || ctx.method() == HandlerType.OPTIONS) {
+            return;
+        }
+        Map<String, Limit> byPath = limits.get(ctx.method());
+        Limit limit = byPath == null ? null : byPath.get(ctx.endpointHandlerPath());
+        if (limit == null) {
+            return;
+        }
+
+        AuthPrincipal principal = AuthPrincipal.of(ctx);
+        String caller = principal != null ? "user:" + principal.userId() : "ip:" + ctx.ip();
+        String key = limit.method() + " " + limit.path() + " " + caller;
+        Bucket bucket = buckets.computeIfAbsent(key, k -> new Bucket(limit));
+
+        long waitNanos = bucket.tryAcquire(System.nanoTime());
+        if (waitNanos > 0) {
+            throttled.increment();
+            long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+            ctx.header("Retry-After", Long.toString(retryAfterSeconds));
+            ctx.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .json(new ErrorResponse("TOO_MANY_REQUESTS",
+                            "Too many requests. Try again in " + retryAfterSeconds + " seconds."));
+            ctx.skipRemainingHandlers();
+        }
+    }
+
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    public int getBucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Removes buckets that have refilled completely; recreating one later gives the same result.
+     */
+    void evictIdle() {
+        long now = System.nanoTime();
+        buckets.entrySet().removeIf(entry -> entry.getValue().isFull(now));
+    }
+
+    /**
+     * A token bucket stored as one timestamp: tokens available at time t are
+     * (t - base) / nanosPerToken, capped at capacity. Taking a token moves base forward by
+     * nanosPerToken, which is a single compare-and-set.
+     */
+    private static final class Bucket {
+        private final long capacityNanos;
+        private final long nanosPerToken;
+        private final AtomicLong base;
+
+        Bucket(Limit limit) {
+            this.nanosPerToken = limit.nanosPerToken();
+            this.capacityNanos = limit.capacity() * nanosPerToken;
+            this.base = new AtomicLong(System.nanoTime() - capacityNanos);
+        }
+
+        /**
+         * Takes a token and returns 0, or returns how long until one is available.
+         */
+        long tryAcquire(long now) {
+            while (true) {
+                long current = base.get();
+                // Lazy refill: a bucket idle for longer than its capacity is simply full.
+                long effective = Math.max(current, now - capacityNanos);
+                long next = effective + nanosPerToken;
+                if (next - now > 0) {
+                    return next - now;
+                }
+                if (base.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        boolean isFull(long now) {
+            return now - base.get() >= capacityNanos;
+        }
+    }
+
+    private static Limit limit(HandlerType method, String path, int permits, Duration period) {
+        return new Limit(method, path, permits, period.toNanos() / permits);
+    }
+}
@@ -0,0 +1,164 @@
+package server;
+
+import io.javalin.http.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip for response bodies, registered as an after-filter in place of Javalin's built-in
+ * compression so the bytes and time it costs show up in /api/admin/metrics. Bodies under
+ * bank.compression.minBytes are sent as-is; below roughly a packet, gzip's header and the
+ * CPU time outweigh what it saves.
+ *
+ * Responses that carry an ETag (see {@link AccountVersions}) are immutable for that tag, so
+ * their compressed bytes are kept in a small LRU keyed by path and tag; a repeat poll that is
+ * not answered with 304 (a second client, or one that dropped its tag) reuses them instead of
+ * compressing again.
+ */
+public class ResponseCompression {
+    private static final int MIN_BYTES = Integer.getInteger("bank.compression.minBytes", 1024);
+    private static final int LEVEL = Integer.getInteger("bank.compression.level", Deflater.DEFAULT_COMPRESSION);
+    private static final int CACHE_ENTRIES = Integer.getInteger("bank.compression.cacheEntries", 1000);
+
+    private final Map<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > CACHE_ENTRIES;
+        }
+    };
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+
+    /**
+     * After-filter: compresses the result in place if the client accepts gzip and the body is
+     * large enough.
+     */
+    public void compress(Context ctx) throws IOException {
+        if (ctx.statusCode() < 200 || ctx.statusCode() == 204 || ctx.statusCode() == 304
+                || ctx.res().getHeader("Content-Encoding") != null) {
+            return;
+        }
+        InputStream result = ctx.resultInputStream();
+        if (result == null) {
+            return;
+        }
+        byte[] body = result.readAllBytes();
+        // Whatever happens below, the filter must leave a result behind since it consumed it.
+        ctx.result(body);
+        if (body.length < MIN_BYTES) {
+            return;
+        }
+        ctx.header("Vary", "Accept-Encoding");
+        if (!acceptsGzip(ctx.header("Accept-Encoding"))) {
+            return;
+        }
+
+        String etag = ctx.res().getHeader("ETag");
+        String key = etag == null || CACHE_ENTRIES <= 0 ? null : ctx.path() + " " + etag;
+        byte[] gzipped = key == null ? null : cached(key);
+        if (gzipped == null) {
+            long start = System.nanoTime();
+            gzipped = gzip(body);
+            compressNanos.add(System.nanoTime() - start);
+            compressed.increment();
+            bytesIn.add(body.length);
+            bytesOut.add(gzipped.length);
+            if (key != null) {
+                synchronized (cache) {
+                    cache.put(key, gzipped);
+                }
+            }
+        }
+        ctx.header("Content-Encoding", "gzip");
+        ctx.result(gzipped);
+    }
+
+    /**
+     * Counters for the metrics endpoint. The ratio is compressed size over original size for
+     * everything compressed so far; cache hits are not counted again.
+     */
+    public Map<String, Object> getMetrics() {
+        long count = compressed.sum();
+        long in = bytesIn.sum();
+        long nanos = compressNanos.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("minBytes", MIN_BYTES);
+        metrics.put("compressed", count);
+        metrics.put("cacheHits", cacheHits.sum());
+        synchronized (cache) {
+            metrics.put("cacheSize", cache.size());
+        }
+        metrics.put("bytesIn", in);
+        metrics.put("bytesOut", bytesOut.sum());
+        metrics.put("ratio", in == 0 ? 0.0 : (double) bytesOut.sum() / in);
+        metrics.put("compressMillis", nanos / 1_000_000);
+        metrics.put("avgCompressMicros", count == 0 ? 0 : nanos / count / 1000);
+        return metrics;
+    }
+
+    private byte[] cached(String key) {
+        byte[] bytes;
+        synchronized (cache) {
+            bytes = cache.get(key);
+        }
+        if (bytes != null) {
+            cacheHits.increment();
+        }
+        return bytes;
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(LEVEL);
+            }
+        }) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // Accept-Encoding: gzip, deflate;q=0.5 -> true if gzip (or *) listed without q=0.
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) {
+                continue;
+            }
+            boolean refused = false;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(param.substring(2)) == 0.0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (!refused) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,40 @@
+package server;
+
+/**
+ * Roles carried in the JWT "role" claim. Each role owns one bit so a route's allowed roles
+ * compile to an int mask and an access check is a single AND (see {@link RoutePolicy}).
+ */
+public enum Role {
+    CUSTOMER,
+    TELLER,
+    ADMIN;
+
+    private final int bit = 1 << ordinal();
+
+    public int bit() {
+        return bit;
+    }
+
+    public static int mask(Role... roles) {
+        int mask = 0;
+        for (Role role : roles) {
+            mask |= role.bit;
+        }
+        return mask;
+    }
+
+    /**
+     * Case-insensitive lookup of a stored or claimed role name; null if unknown.
+     */
+    public static Role fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        return switch (name.toUpperCase()) {
+            case "CUSTOMER" -> CUSTOMER;
+            case "TELLER" -> TELLER;
+            case "ADMIN" -> ADMIN;
+            default -> null;
+        };
+    }
+}
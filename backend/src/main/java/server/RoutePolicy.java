@@ -0,0 +1,169 @@
+package server;
+
+import bank.Logs;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+import server.dto.ErrorResponse;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static io.javalin.http.HandlerType.DELETE;
+import static io.javalin.http.HandlerType.GET;
+import static io.javalin.http.HandlerType.POST;
+import static io.javalin.http.HandlerType.PUT;
+import static server.Role.ADMIN;
+import static server.Role.CUSTOMER;
+import static server.Role.TELLER;
+
+/**
+ * Who may call which route. {@link #RULES} is the whole access policy in one table; it is
+ * compiled at startup into a per-method map from route template to a {@link Role} bitmask, and
+ * {@link #authorize(Context)} enforces it as a beforeMatched filter right after
+ * {@link AuthFilter}. Routes missing from the table are denied.
+ *
+ * Checks that depend on the request itself (which account, which role is being granted)
+ * stay in the handlers.
+ */
+public class RoutePolicy {
+    // Anyone, including callers without a token.
+    private static final int PUBLIC = -1;
+    // Any authenticated role.
+    private static final int AUTHENTICATED = Role.mask(Role.values());
+
+    private record Rule(HandlerType method, String path, int allowed, String deniedMessage) {
+    }
+
+    private static final List<Rule> RULES = List.of(
+            // Auth
+            anyone(POST, "/api/auth/login"),
+            anyone(POST, "/api/auth/logout"),
+            signedIn(POST, "/api/auth/change-password"),
+            anyone(POST, "/api/auth/password-reset/request"),
+            allow(GET, "/api/auth/password-reset/requests", "Only admins can view password reset requests", ADMIN),
+            allow(POST, "/api/auth/password-reset/approve/{requestId}", "Only admins can approve password reset requests", ADMIN),
+            allow(POST, "/api/auth/password-reset/reject/{requestId}", "Only admins can reject password reset requests", ADMIN),
+
+            // Customers (sign-up is open; ownership is checked in the handler)
+            anyone(POST, "/api/customers"),
+            signedIn(GET, "/api/customers/{customerId}/accounts"),
+            signedIn(GET, "/api/customers/{customerId}/dashboard"),
+
+            // Account requests
+            allow(POST, "/api/accounts/request", "Only customers can request accounts", CUSTOMER),
+            allow(GET, "/api/accounts/requests", "Only admins and tellers can view account requests", TELLER, ADMIN),
+            allow(POST, "/api/accounts/requests/{requestId}/approve", "Only admins and tellers can approve account requests", TELLER, ADMIN),
+            allow(POST, "/api/accounts/requests/{requestId}/reject", "Only admins and tellers can reject account requests", TELLER, ADMIN),
+
+            // Account deletion requests
+            allow(POST, "/api/accounts/{accountId}/delete-request", "Only customers can request account deletion", CUSTOMER),
+            allow(GET, "/api/admin/requests/account-deletion", "Only admins can view requests", ADMIN),
+            allow(POST, "/api/admin/requests/account-deletion/{requestId}/approve", "Only admins can approve requests", ADMIN),
+            allow(POST, "/api/admin/requests/account-deletion/{requestId}/reject", "Only admins can reject requests", ADMIN),
+
+            // Accounts and transactions (customers only see and post to their own accounts;
+            // checked in the handlers)
+            allow(GET, "/api/accounts/search", "Only admins and tellers can search accounts", TELLER, ADMIN),
+            signedIn(GET, "/api/accounts/{accountId}"),
+            signedIn(POST, "/api/accounts"),
+            allow(DELETE, "/api/accounts/{accountNumber}", "Only admins can delete accounts.", ADMIN),
+            signedIn(GET, "/api/accounts/{accountId}/transactions"),
+            signedIn(POST, "/api/accounts/{accountId}/transactions"),
+            // Transfers (customers may only debit their own accounts; checked in the handler)
+            signedIn(POST, "/api/transfers"),
+            signedIn(POST, "/api/transfers/batch"),
+
+            // Users (the createUser handler limits what tellers may create)
+            allow(GET, "/api/users", "Only admins can view users", ADMIN),
+            allow(GET, "/api/users/search", "Only admins can search users", ADMIN),
+            allow(PUT, "/api/users/{userId}/role", "Only admins can change user roles", ADMIN),
+            allow(PUT, "/api/users/{userId}/status", "Only admins can change user status", ADMIN),
+            allow(POST, "/api/users/{userId}/unlock", "Only admins can unlock users", ADMIN),
+            allow(DELETE, "/api/users/{userId}", "Only admins can delete users", ADMIN),
+            allow(POST, "/api/users", "Only admins and tellers can create users", TELLER, ADMIN),
+
+            // Live updates (what each role receives is filtered in EventBus)
+            signedIn(GET, EventBus.PATH),
+
+            // Operations
+            allow(GET, "/api/admin/metrics", "Only admins can view metrics", ADMIN),
+            allow(GET, "/api/admin/summary", "Only admins can view the summary", ADMIN));
+
+    private static final Map<HandlerType, Map<String, Rule>> COMPILED = compile(RULES);
+
+    private final Logs auditLogs;
+    private final LongAdder denied = new LongAdder();
+
+    public RoutePolicy(Logs auditLogs) {
+        this.auditLogs = auditLogs;
+    }
+
+    /**
+     * Whether the route may be called without a token. Used by {@link AuthFilter}.
+     */
+    static boolean isPublic(Context ctx) {
+        Rule rule = ruleFor(ctx);
+        return rule != null && rule.allowed() == PUBLIC;
+    }
+
+    void authorize(Context ctx) {
+        if (ctx.method() == HandlerType.OPTIONS) {
+            return;
+        }
+        Rule rule = ruleFor(ctx);
+        if (rule != null && rule.allowed() == PUBLIC) {
+            return;
+        }
+        AuthPrincipal principal = AuthPrincipal.of(ctx);
+        Role role = principal == null ? null : principal.role();
+        if (rule != null && role != null && (rule.allowed() & role.bit()) != 0) {
+            return;
+        }
+
+        denied.increment();
+        String caller = principal == null ? "anonymous" : principal.username();
+        if (auditLogs != null) {
+            auditLogs.append(caller, "ACCESS_DENIED", ctx.method().name() + " " + ctx.path(),
+                    "role=" + role);
+        }
+        String message = rule == null ? "No access policy for this route" : rule.deniedMessage();
+        ctx.status(HttpStatus.FORBIDDEN).json(new ErrorResponse("FORBIDDEN", message));
+        ctx.skipRemainingHandlers();
+    }
+
+    public long getDeniedCount() {
+        return denied.sum();
+    }
+
+    private static Rule ruleFor(Context ctx) {
+        Map<String, Rule> byPath = COMPILED.get(ctx.method());
+        return byPath == null ? null : byPath.get(ctx.endpointHandlerPath());
+    }
+
+    private static Map<HandlerType, Map<String, Rule>> compile(List<Rule> rules) {
+        Map<HandlerType, Map<String, Rule>> compiled = new EnumMap<>(HandlerType.class);
+        for (Rule rule : rules) {
+            Rule previous = compiled.computeIfAbsent(rule.method(), m -> new HashMap<>()).put(rule.path(), rule);
+            if (previous != null) {
+                throw new IllegalStateException("Duplicate access rule for " + rule.method() + " " + rule.path());
+            }
+        }
+        return compiled;
+    }
+
+    private static Rule anyone(HandlerType method, String path) {
+        return new Rule(method, path, PUBLIC, null);
+    }
+
+    private static Rule signedIn(HandlerType method, String path) {
+        return new Rule(method, path, AUTHENTICATED, "Not allowed");
+    }
+
+    private static Rule allow(HandlerType method, String path, String deniedMessage, Role... roles) {
+        return new Rule(method, path, Role.mask(roles), deniedMessage);
+    }
+}
@@ -1,19 +1,97 @@
 package server;
 
 import bank.DatabaseManager;
+import bank.RepositoryEvent;
+import bank.User;
+import bank.UserRepository;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
+/**
+ * Password-change flags and login lockouts. Failed-attempt counters and lock deadlines are
+ * kept in memory: each user's state is loaded once (from the login query or on demand),
+ * updated atomically per user, and written back to user_security_settings in batches by a
+ * background flusher, so a burst of bad logins costs at most one row write per user per
+ * flush. Lock expiry is checked in Java against the stored deadline.
+ */
 public class SecurityService {
+    private static final int MAX_FAILED_ATTEMPTS = 5;
+    private static final Duration LOCK_DURATION = Duration.ofDays(1);
+    private static final long FLUSH_INTERVAL_MILLIS = Long.getLong("bank.security.flushMillis", 500);
+    // SQLite's datetime() format, always UTC.
+    private static final DateTimeFormatter SQLITE_DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     private final DatabaseManager dbManager;
+    private final UserRepository userRepository;
 
-    public SecurityService(DatabaseManager dbManager) {
+    // Per-user lockout state. Updates go through compute() so each user is changed under its
+    // own bin lock; users touched since the last flush are listed in dirty.
+    private final Map<Long, Lockout> lockouts = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    // Lock deadlines of locked users, kept beside lockouts so counting them is O(1). Expired
+    // entries linger until the next reconcileLocks().
+    private final Map<Long, Instant> locks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    private record Lockout(int failedAttempts, Instant lockedUntil) {
+        static final Lockout CLEAR = new Lockout(0, null);
+
+        boolean isClear() {
+            return failedAttempts == 0 && lockedUntil == null;
+        }
+
+        boolean isLocked(Instant now) {
+            return lockedUntil != null && now.isBefore(lockedUntil);
+        }
+
+        Lockout withFailure(Instant now) {
+            int attempts = failedAttempts + 1;
+            return new Lockout(attempts, attempts >= MAX_FAILED_ATTEMPTS ? now.plus(LOCK_DURATION) : lockedUntil);
+        }
+    }
+
+    /**
+     * Everything the login endpoint needs about one user, read in a single query.
+     */
+    public record LoginRecord(long userId, User user, String role, String createdAt,
+            boolean forcePasswordChange, boolean locked) {
+    }
+
+    public SecurityService(DatabaseManager dbManager, UserRepository userRepository) {
         this.dbManager = dbManager;
+        this.userRepository = userRepository;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "security-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public SecurityService(DatabaseManager dbManager) {
+        this(dbManager, new UserRepository(dbManager));
     }
 
+    /**
+     * Creates the settings table, then starts flushing lockout changes in the background.
+     */
     public void initialize() {
         String sql = "CREATE TABLE IF NOT EXISTS user_security_settings (" +
                 "user_id INTEGER PRIMARY KEY," +
@@ -41,138 +119,325 @@ public class SecurityService {
             e.printStackTrace();
             throw new RuntimeException("Failed to initialize security settings table", e);
         }
+
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
     }
 
     public void setForcePasswordChange(long userId, boolean force) {
         ensureRecordExists(userId);
         String sql = "UPDATE user_security_settings SET force_password_change = ? WHERE user_id = ?";
+        RepositoryEvent event = RepositoryEvent.start("SecurityService.setForcePasswordChange");
+        event.userId = userId;
         try (Connection conn = dbManager.getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, force ? 1 : 0);
             stmt.setLong(2, userId);
-            stmt.executeUpdate();
+            event.rows = stmt.executeUpdate();
         } catch (SQLException e) {
             System.err.println("Error setting force password change: " + e.getMessage());
             e.printStackTrace();
             throw new RuntimeException("Failed to set force password change flag", e);
+        } finally {
+            event.commit();
         }
     }
 
     public boolean isPasswordChangeRequired(long userId) {
         String sql = "SELECT force_password_change FROM user_security_settings WHERE user_id = ?";
+        RepositoryEvent event = RepositoryEvent.start("SecurityService.isPasswordChangeRequired");
+        event.userId = userId;
         try (Connection conn = dbManager.getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setLong(1, userId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
+                    event.rows = 1;
                     return rs.getInt("force_password_change") == 1;
                 }
             }
         } catch (SQLException e) {
             e.printStackTrace();
+        } finally {
+            event.commit();
         }
         return false;
     }
 
-    public void recordFailedAttempt(long userId) {
-        ensureRecordExists(userId);
-        // First get current attempts
-        int attempts = getFailedAttempts(userId);
-        attempts++;
-
-        String sql = "UPDATE user_security_settings SET failed_attempts = ? WHERE user_id = ?";
-
-        // If 5th attempt, lock for 24 hours
-        if (attempts >= 5) {
-            sql = "UPDATE user_security_settings SET failed_attempts = ?, locked_until = datetime('now', '+1 day') WHERE user_id = ?";
-        }
-
+    /**
+     * Loads the user, role, creation time and security settings for a login in one round trip.
+     * Returns null if the username does not exist. The stored counters seed the in-memory
+     * lockout state unless that state is already loaded, in which case memory wins.
+     */
+    public LoginRecord findLoginRecord(String username) {
+        String sql = "SELECT u.id, u.first_name, u.last_name, u.username, u.password, u.role, u.created_at, " +
+                "COALESCE(s.force_password_change, 0) AS force_password_change, " +
+                "COALESCE(s.failed_attempts, 0) AS failed_attempts, s.locked_until " +
+                "FROM users u LEFT JOIN user_security_settings s ON s.user_id = u.id " +
+                "WHERE u.username = ?";
+        RepositoryEvent event = RepositoryEvent.start("SecurityService.findLoginRecord");
+        event.lookupKey = username;
         try (Connection conn = dbManager.getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, attempts);
-            stmt.setLong(2, userId);
-            stmt.executeUpdate();
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                event.rows = 1;
+                long userId = rs.getLong("id");
+                event.userId = userId;
+                Lockout stored = new Lockout(rs.getInt("failed_attempts"), parseDateTime(rs.getString("locked_until")));
+                Lockout lockout = lockouts.computeIfAbsent(userId, id -> stored);
+                return new LoginRecord(
+                        userId,
+                        userRepository.mapRowToUser(rs),
+                        rs.getString("role"),
+                        rs.getString("created_at"),
+                        rs.getInt("force_password_change") == 1,
+                        lockout.isLocked(Instant.now()));
+            }
         } catch (SQLException e) {
-            throw new RuntimeException("Failed to record failed attempt", e);
+            throw new RuntimeException("Failed to load login record", e);
+        } finally {
+            event.commit();
         }
     }
 
-    public void resetFailedAttempts(long userId) {
-        ensureRecordExists(userId);
-        String sql = "UPDATE user_security_settings SET failed_attempts = 0, locked_until = NULL WHERE user_id = ?";
-        try (Connection conn = dbManager.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, userId);
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to reset failed attempts", e);
+    /**
+     * Clears the failed-attempt counter and any expired lock after a successful login. Does
+     * nothing, not even mark the user dirty, when there is nothing to clear.
+     */
+    public void recordLoginSuccess(LoginRecord record) {
+        if (!lockout(record.userId()).isClear()) {
+            resetFailedAttempts(record.userId());
         }
     }
 
+    /**
+     * Counts a failed login and locks the user for 24 hours on the fifth attempt. Returns the
+     * new attempt count.
+     */
+    public int recordLoginFailure(long userId) {
+        Instant now = Instant.now();
+        return update(userId, lockout -> lockout.withFailure(now)).failedAttempts();
+    }
+
+    public void recordFailedAttempt(long userId) {
+        recordLoginFailure(userId);
+    }
+
+    public void resetFailedAttempts(long userId) {
+        update(userId, lockout -> Lockout.CLEAR);
+    }
+
     public boolean isLocked(long userId) {
-        String sql = "SELECT locked_until FROM user_security_settings WHERE user_id = ?";
+        return lockout(userId).isLocked(Instant.now());
+    }
+
+    public int getFailedAttempts(long userId) {
+        return lockout(userId).failedAttempts();
+    }
+
+    public void unlockUser(long userId) {
+        resetFailedAttempts(userId);
+    }
+
+    /**
+     * Number of locked users, as of the last {@link #reconcileLocks} for locks that have
+     * expired since.
+     */
+    public int getLockedCount() {
+        return locks.size();
+    }
+
+    /**
+     * Rebuilds the set of locked users from user_security_settings and the in-memory state,
+     * which wins for users it holds, and drops expired locks.
+     */
+    public void reconcileLocks() {
+        Instant now = Instant.now();
+        Map<Long, Instant> locked = new HashMap<>();
+        String sql = "SELECT user_id, locked_until FROM user_security_settings WHERE locked_until IS NOT NULL";
+        RepositoryEvent event = RepositoryEvent.start("SecurityService.reconcileLocks");
         try (Connection conn = dbManager.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, userId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    String lockedUntil = rs.getString("locked_until");
-                    if (lockedUntil != null) {
-                        // Check if lock is still valid
-                        return checkLockDate(lockedUntil);
-                    }
+                PreparedStatement stmt = conn.prepareStatement(sql);
+                ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                Instant lockedUntil = parseDateTime(rs.getString("locked_until"));
+                if (lockedUntil != null && now.isBefore(lockedUntil)) {
+                    locked.put(rs.getLong("user_id"), lockedUntil);
                 }
+                event.rows++;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new RuntimeException("Failed to load locked users", e);
+        } finally {
+            event.commit();
         }
-        return false;
+        lockouts.forEach((userId, lockout) -> {
+            if (lockout.isLocked(now)) {
+                locked.put(userId, lockout.lockedUntil());
+            } else {
+                locked.remove(userId);
+            }
+        });
+        locks.keySet().retainAll(locked.keySet());
+        locks.putAll(locked);
     }
 
-    private boolean checkLockDate(String lockedUntil) {
-        String sql = "SELECT datetime('now') < ?";
-        try (Connection conn = dbManager.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, lockedUntil);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getBoolean(1);
+    /**
+     * Writes every changed lockout to the database in one transaction. Runs on the flusher
+     * thread; call it directly on shutdown so the last changes are not lost.
+     */
+    public void flush() {
+        List<Long> userIds = new ArrayList<>(dirty);
+        if (userIds.isEmpty()) {
+            return;
+        }
+        // Users deleted since their last change are skipped rather than failing the batch.
+        String sql = "INSERT INTO user_security_settings (user_id, force_password_change, failed_attempts, locked_until) " +
+                "SELECT ?, 0, ?, ? WHERE EXISTS (SELECT 1 FROM users WHERE id = ?) " +
+                "ON CONFLICT(user_id) DO UPDATE SET failed_attempts = excluded.failed_attempts, " +
+                "locked_until = excluded.locked_until";
+        RepositoryEvent event = RepositoryEvent.start("SecurityService.flush");
+        List<Long> written = new ArrayList<>();
+        try (Connection conn = dbManager.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (Long userId : userIds) {
+                    // Remove before reading so a change made after the read marks the user
+                    // dirty again and is picked up by the next flush.
+                    dirty.remove(userId);
+                    written.add(userId);
+                    Lockout lockout = lockouts.getOrDefault(userId, Lockout.CLEAR);
+                    stmt.setLong(1, userId);
+                    stmt.setInt(2, lockout.failedAttempts());
+                    stmt.setString(3, formatDateTime(lockout.lockedUntil()));
+                    stmt.setLong(4, userId);
+                    stmt.addBatch();
                 }
+                stmt.executeBatch();
+                conn.commit();
+                event.rows = written.size();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            dirty.addAll(written);
+            throw new RuntimeException("Failed to flush lockout state", e);
+        } finally {
+            event.commit();
         }
-        return false;
     }
 
-    public int getFailedAttempts(long userId) {
-        String sql = "SELECT failed_attempts FROM user_security_settings WHERE user_id = ?";
+    /**
+     * Drops the in-memory state of a deleted user.
+     */
+    public void forget(long userId) {
+        lockouts.remove(userId);
+        dirty.remove(userId);
+        locks.remove(userId);
+    }
+
+    /**
+     * Stops the flusher and writes any pending changes.
+     */
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Error flushing lockout state: " + e.getMessage());
+        }
+    }
+
+    private Lockout lockout(long userId) {
+        Lockout lockout = lockouts.get(userId);
+        if (lockout != null) {
+            return lockout;
+        }
+        // Load outside the map so a slow read does not hold the bin lock.
+        Lockout loaded = loadLockout(userId);
+        Lockout existing = lockouts.putIfAbsent(userId, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    private Lockout update(long userId, UnaryOperator<Lockout> change) {
+        Lockout loaded = lockouts.containsKey(userId) ? null : loadLockout(userId);
+        Lockout updated = lockouts.compute(userId, (id, current) -> {
+            Lockout base = current != null ? current : loaded != null ? loaded : Lockout.CLEAR;
+            Lockout next = change.apply(base);
+            if (next.lockedUntil() != null) {
+                locks.put(id, next.lockedUntil());
+            } else {
+                locks.remove(id);
+            }
+            return next;
+        });
+        // Only once the new state is stored: flush clears the flag before it reads the state,
+        // so whichever order the two run in, the flush that clears this mark sees this change.
+        dirty.add(userId);
+        return updated;
+    }
+
+    private Lockout loadLockout(long userId) {
+        String sql = "SELECT failed_attempts, locked_until FROM user_security_settings WHERE user_id = ?";
+        RepositoryEvent event = RepositoryEvent.start("SecurityService.loadLockout");
+        event.userId = userId;
         try (Connection conn = dbManager.getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setLong(1, userId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return rs.getInt("failed_attempts");
+                    event.rows = 1;
+                    return new Lockout(rs.getInt("failed_attempts"), parseDateTime(rs.getString("locked_until")));
                 }
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new RuntimeException("Failed to load lockout state", e);
+        } finally {
+            event.commit();
         }
-        return 0;
+        return Lockout.CLEAR;
     }
 
-    public void unlockUser(long userId) {
-        resetFailedAttempts(userId);
+    private static Instant parseDateTime(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return LocalDateTime.parse(value, SQLITE_DATETIME).toInstant(ZoneOffset.UTC);
+    }
+
+    private static String formatDateTime(Instant value) {
+        return value == null ? null : SQLITE_DATETIME.format(LocalDateTime.ofInstant(value, ZoneOffset.UTC));
     }
 
     private void ensureRecordExists(long userId) {
         String sql = "INSERT OR IGNORE INTO user_security_settings (user_id, force_password_change, failed_attempts) VALUES (?, 0, 0)";
+        RepositoryEvent event = RepositoryEvent.start("SecurityService.ensureRecordExists");
+        event.userId = userId;
         try (Connection conn = dbManager.getConnection();
                 PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setLong(1, userId);
-            stmt.executeUpdate();
+            event.rows = stmt.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException("Failed to ensure security record exists", e);
+        } finally {
+            event.commit();
         }
     }
 }
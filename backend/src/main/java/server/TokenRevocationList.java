@@ -0,0 +1,271 @@
+package server;
+
+import bank.DatabaseManager;
+import bank.RepositoryEvent;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tokens that were signed out before they expired. Two kinds of entries, both persisted in
+ * SQLite so they survive a restart:
+ *
+ * - a single token, by its jti (logout);
+ * - every token of a user issued before a cutoff (password reset, unlock, role change, delete).
+ *
+ * {@link #isRevoked} runs on every authenticated request. Single revocations are mirrored in
+ * a Bloom filter in front of an exact map, so a token that was never revoked is cleared by a
+ * few bit probes without touching the map; the map only settles the rare filter hit. Entries
+ * are dropped by a periodic sweep once the tokens they cover have expired anyway, and the
+ * filter is rebuilt from the map at the same time since Bloom filters cannot delete.
+ */
+public class TokenRevocationList {
+    private static final int CAPACITY = Integer.getInteger("bank.jwt.revocationCapacity", 100_000);
+    private static final long SWEEP_INTERVAL_MINUTES = 10;
+    // Cutoffs only matter while tokens issued before them can still be valid.
+    private static final long CUTOFF_TTL_MILLIS = JwtUtil.EXPIRATION_TIME;
+
+    private final DatabaseManager dbManager;
+    // jti -> token expiry (epoch millis)
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+    // userId -> tokens issued before this instant (epoch millis) are revoked
+    private final Map<Long, Long> userCutoffs = new ConcurrentHashMap<>();
+    private volatile BloomFilter filter = new BloomFilter(CAPACITY);
+
+    public TokenRevocationList(DatabaseManager dbManager) {
+        this.dbManager = dbManager;
+    }
+
+    /**
+     * Creates the tables, loads unexpired entries and starts the sweeper.
+     */
+    public void initialize() {
+        try (Connection conn = dbManager.getConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS revoked_tokens (" +
+                    "jti TEXT PRIMARY KEY," +
+                    "user_id INTEGER NOT NULL," +
+                    "expires_at INTEGER NOT NULL" +
+                    ");");
+            stmt.execute("CREATE TABLE IF NOT EXISTS user_token_cutoffs (" +
+                    "user_id INTEGER PRIMARY KEY," +
+                    "revoked_before INTEGER NOT NULL" +
+                    ");");
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to initialize token revocation tables", e);
+        }
+        load();
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "token-revocation-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                System.err.println("Error sweeping revoked tokens: " + e.getMessage());
+            }
+        }, SWEEP_INTERVAL_MINUTES, SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * True if the token was revoked on its own or falls under a cutoff for its user.
+     *
+     * @param tokenId        the jti claim; null for tokens issued before jti was added
+     * @param issuedAtMillis the iat claim in epoch millis
+     */
+    public boolean isRevoked(String tokenId, long userId, long issuedAtMillis) {
+        Long cutoff = userCutoffs.get(userId);
+        if (cutoff != null && issuedAtMillis < cutoff) {
+            return true;
+        }
+        return tokenId != null && filter.mightContain(tokenId) && revokedTokens.containsKey(tokenId);
+    }
+
+    /**
+     * Revokes one token until it expires.
+     */
+    public void revoke(String tokenId, long userId, long expiresAtMillis) {
+        if (tokenId == null || expiresAtMillis <= System.currentTimeMillis()) {
+            return;
+        }
+        String sql = "INSERT OR IGNORE INTO revoked_tokens (jti, user_id, expires_at) VALUES (?, ?, ?)";
+        RepositoryEvent event = RepositoryEvent.start("TokenRevocationList.revoke");
+        event.userId = userId;
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, tokenId);
+            stmt.setLong(2, userId);
+            stmt.setLong(3, expiresAtMillis);
+            event.rows = stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to revoke token", e);
+        } finally {
+            event.commit();
+        }
+        // Map first: a concurrent check that sees the filter bit must find the entry.
+        revokedTokens.put(tokenId, expiresAtMillis);
+        filter.add(tokenId);
+    }
+
+    /**
+     * Revokes every token issued to the user up to now. Tokens issued afterwards (the user's
+     * next login) are not affected. JWT iat has one-second resolution, so the cutoff is the
+     * start of the current second.
+     */
+    public void revokeAllForUser(long userId) {
+        long cutoff = System.currentTimeMillis() / 1000 * 1000;
+        String sql = "INSERT INTO user_token_cutoffs (user_id, revoked_before) VALUES (?, ?) " +
+                "ON CONFLICT(user_id) DO UPDATE SET revoked_before = excluded.revoked_before";
+        RepositoryEvent event = RepositoryEvent.start("TokenRevocationList.revokeAllForUser");
+        event.userId = userId;
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, userId);
+            stmt.setLong(2, cutoff);
+            event.rows = stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to revoke tokens for user " + userId, e);
+        } finally {
+            event.commit();
+        }
+        userCutoffs.merge(userId, cutoff, Math::max);
+    }
+
+    public int getRevokedTokenCount() {
+        return revokedTokens.size();
+    }
+
+    public int getUserCutoffCount() {
+        return userCutoffs.size();
+    }
+
+    /**
+     * Drops entries that no longer cover any valid token, in memory and in the database.
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        RepositoryEvent event = RepositoryEvent.start("TokenRevocationList.sweep");
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement tokens = conn.prepareStatement("DELETE FROM revoked_tokens WHERE expires_at <= ?");
+                PreparedStatement cutoffs = conn.prepareStatement(
+                        "DELETE FROM user_token_cutoffs WHERE revoked_before <= ?")) {
+            tokens.setLong(1, now);
+            cutoffs.setLong(1, now - CUTOFF_TTL_MILLIS);
+            event.rows = tokens.executeUpdate() + cutoffs.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to sweep revoked tokens", e);
+        } finally {
+            event.commit();
+        }
+
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+        userCutoffs.values().removeIf(cutoff -> cutoff <= now - CUTOFF_TTL_MILLIS);
+        rebuildFilter();
+    }
+
+    private void load() {
+        long now = System.currentTimeMillis();
+        RepositoryEvent event = RepositoryEvent.start("TokenRevocationList.load");
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement tokens = conn.prepareStatement(
+                        "SELECT jti, expires_at FROM revoked_tokens WHERE expires_at > ?");
+                PreparedStatement cutoffs = conn.prepareStatement(
+                        "SELECT user_id, revoked_before FROM user_token_cutoffs WHERE revoked_before > ?")) {
+            tokens.setLong(1, now);
+            try (ResultSet rs = tokens.executeQuery()) {
+                while (rs.next()) {
+                    revokedTokens.put(rs.getString("jti"), rs.getLong("expires_at"));
+                }
+            }
+            cutoffs.setLong(1, now - CUTOFF_TTL_MILLIS);
+            try (ResultSet rs = cutoffs.executeQuery()) {
+                while (rs.next()) {
+                    userCutoffs.put(rs.getLong("user_id"), rs.getLong("revoked_before"));
+                }
+            }
+            event.rows = revokedTokens.size() + userCutoffs.size();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to load revoked tokens", e);
+        } finally {
+            event.commit();
+        }
+        rebuildFilter();
+    }
+
+    private void rebuildFilter() {
+        BloomFilter rebuilt = new BloomFilter(Math.max(CAPACITY, revokedTokens.size() * 2));
+        revokedTokens.keySet().forEach(rebuilt::add);
+        filter = rebuilt;
+        // A revoke() that raced with the rebuild may have gone into the old filter only.
+        revokedTokens.keySet().forEach(rebuilt::add);
+    }
+
+    /**
+     * Fixed-size Bloom filter sized for a 1% false-positive rate at the given capacity.
+     * Bits are set with CAS on an AtomicLongArray, so adds need no lock.
+     */
+    private static final class BloomFilter {
+        private static final int HASHES = 7;
+
+        private final AtomicLongArray words;
+        private final long bits;
+
+        BloomFilter(int capacity) {
+            // m = -n ln(p) / (ln 2)^2 with p = 0.01 is about 9.6 bits per entry
+            long wanted = Math.max(64, (long) Math.ceil(capacity * 9.6));
+            this.words = new AtomicLongArray((int) ((wanted + 63) / 64));
+            this.bits = (long) words.length() * 64;
+        }
+
+        void add(String key) {
+            long h1 = hash(key, 0x9E3779B97F4A7C15L);
+            long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current;
+                do {
+                    current = words.get(index);
+                } while ((current & mask) == 0 && !words.compareAndSet(index, current, current | mask));
+            }
+        }
+
+        boolean mightContain(String key) {
+            long h1 = hash(key, 0x9E3779B97F4A7C15L);
+            long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 64-bit FNV-1a over the chars (no allocation), seeded and finished with a murmur-style mix.
+        private static long hash(String key, long seed) {
+            long h = 0xcbf29ce484222325L ^ seed;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
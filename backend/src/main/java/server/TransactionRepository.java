@@ -1,6 +1,7 @@
 package server;
 
 import bank.DatabaseManager;
+import bank.RepositoryEvent;
 import bank.Transaction;
 
 import java.sql.Connection;
@@ -22,16 +23,20 @@ public class TransactionRepository {
     public void addTransaction(long accountId, Transaction transaction) {
         String sql = "INSERT INTO transactions (account_id, amount, type, description, created_at) " +
                 "VALUES (?, ?, ?, ?, ?)";
-        try (Connection connection = databaseManager.getConnection();
+        RepositoryEvent event = RepositoryEvent.start("TransactionRepository.addTransaction");
+        event.accountId = accountId;
+        try (Connection connection = databaseManager.getConnectionForAccount(accountId);
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setLong(1, accountId);
             statement.setDouble(2, transaction.getAmount());
             statement.setString(3, transaction.getType());
             statement.setString(4, transaction.getDescription());
             statement.setString(5, transaction.getTimestamp().toString());
-            statement.executeUpdate();
+            event.rows = statement.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException("Unable to add transaction", e);
+        } finally {
+            event.commit();
         }
     }
 
@@ -41,7 +46,9 @@ public class TransactionRepository {
                 "FROM transactions " +
                 "WHERE account_id = ? " +
                 "ORDER BY created_at DESC";
-        try (Connection connection = databaseManager.getConnection();
+        RepositoryEvent event = RepositoryEvent.start("TransactionRepository.getTransactionsByAccountId");
+        event.accountId = accountId;
+        try (Connection connection = databaseManager.getConnectionForAccount(accountId);
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setLong(1, accountId);
             try (ResultSet resultSet = statement.executeQuery()) {
@@ -54,8 +61,11 @@ public class TransactionRepository {
                     transactions.add(transaction);
                 }
             }
+            event.rows = transactions.size();
         } catch (SQLException e) {
             throw new RuntimeException("Unable to get transactions for account", e);
+        } finally {
+            event.commit();
         }
         return transactions;
     }
@@ -79,7 +89,9 @@ public class TransactionRepository {
 
         sql.append(" ORDER BY created_at DESC");
 
-        try (Connection connection = databaseManager.getConnection();
+        RepositoryEvent event = RepositoryEvent.start("TransactionRepository.searchTransactions");
+        event.accountId = accountId;
+        try (Connection connection = databaseManager.getConnectionForAccount(accountId);
                 PreparedStatement statement = connection.prepareStatement(sql.toString())) {
 
             statement.setLong(1, accountId);
@@ -102,8 +114,11 @@ public class TransactionRepository {
                     results.add(transaction);
                 }
             }
+            event.rows = results.size();
         } catch (SQLException e) {
             throw new RuntimeException("Unable to search transactions", e);
+        } finally {
+            event.commit();
         }
 
         return results;
@@ -111,16 +126,28 @@ public class TransactionRepository {
 
     public long findAccountId(String accountNumber) {
         String sql = "SELECT id FROM accounts WHERE account_number = ?";
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, accountNumber);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return resultSet.getLong("id");
+        RepositoryEvent event = RepositoryEvent.start("TransactionRepository.findAccountId");
+        event.lookupKey = accountNumber;
+        try {
+            // Any shard may hold the number; at most one does.
+            for (Long accountId : databaseManager.forEachShard(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    statement.setString(1, accountNumber);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        return resultSet.next() ? resultSet.getLong("id") : null;
+                    }
+                }
+            })) {
+                if (accountId != null) {
+                    event.rows = 1;
+                    event.accountId = accountId;
+                    return accountId;
                 }
             }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to locate account " + accountNumber, e);
+        } finally {
+            event.commit();
         }
         throw new IllegalStateException("Account " + accountNumber + " does not exist in the database.");
     }
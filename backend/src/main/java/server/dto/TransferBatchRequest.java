@@ -0,0 +1,15 @@
+package server.dto;
+
+import java.util.List;
+
+public class TransferBatchRequest {
+    private List<TransferRequest> transfers;
+
+    public List<TransferRequest> getTransfers() {
+        return transfers;
+    }
+
+    public void setTransfers(List<TransferRequest> transfers) {
+        this.transfers = transfers;
+    }
+}
@@ -0,0 +1,40 @@
+package server.dto;
+
+public class TransferRequest {
+    private long fromAccountId;
+    private long toAccountId;
+    private double amount;
+    private String description;
+
+    public long getFromAccountId() {
+        return fromAccountId;
+    }
+
+    public void setFromAccountId(long fromAccountId) {
+        this.fromAccountId = fromAccountId;
+    }
+
+    public long getToAccountId() {
+        return toAccountId;
+    }
+
+    public void setToAccountId(long toAccountId) {
+        this.toAccountId = toAccountId;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public void setAmount(double amount) {
+        this.amount = amount;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+}
@@ -0,0 +1,141 @@
+package server;
+
+import bank.DatabaseManager;
+import com.google.gson.Gson;
+import io.javalin.Javalin;
+import io.javalin.http.Handler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the store behind a real Javalin route, the way ApiServer wraps the transaction POSTs.
+ */
+class IdempotencyStoreTest {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final AtomicInteger runs = new AtomicInteger();
+    private IdempotencyStore store;
+    private Javalin app;
+    private volatile Handler handler;
+
+    @BeforeEach
+    void setUp() {
+        store = new IdempotencyStore(new DatabaseManager());
+        store.initialize();
+        // A new caller on every run, so rows left in the table by earlier runs never match.
+        long userId = System.nanoTime();
+        Gson gson = new Gson();
+        app = Javalin.create(config -> config.jsonMapper(new io.javalin.json.JsonMapper() {
+            @Override
+            public String toJsonString(Object obj, java.lang.reflect.Type type) {
+                return gson.toJson(obj, type);
+            }
+
+            @Override
+            public <T> T fromJsonString(String json, java.lang.reflect.Type targetType) {
+                return gson.fromJson(json, targetType);
+            }
+        }));
+        app.before(ctx -> ctx.attribute(AuthPrincipal.ATTRIBUTE,
+                new AuthPrincipal(userId, "idempotency", Role.CUSTOMER, "token", 0)));
+        app.post("/transactions", ctx -> store.handle(ctx, c -> {
+            runs.incrementAndGet();
+            handler.handle(c);
+        }));
+        app.start(0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        app.stop();
+    }
+
+    @Test
+    void concurrentDuplicateWaitsForTheFirstAndReplaysIt() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        handler = ctx -> {
+            started.countDown();
+            release.await();
+            ctx.status(201).result("{\"id\":7}");
+        };
+
+        CompletableFuture<HttpResponse<String>> first = postAsync("key-1", "{\"amount\":5}");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<HttpResponse<String>> second = postAsync("key-1", "{\"amount\":5}");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (store.getCoalescedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        assertEquals(1, store.getCoalescedCount());
+        HttpResponse<String> original = first.get(10, TimeUnit.SECONDS);
+        HttpResponse<String> duplicate = second.get(10, TimeUnit.SECONDS);
+        assertEquals(1, runs.get());
+        assertEquals(201, original.statusCode());
+        assertEquals(201, duplicate.statusCode());
+        assertEquals(original.body(), duplicate.body());
+        assertEquals("true", duplicate.headers().firstValue("Idempotent-Replayed").orElse(null));
+    }
+
+    @Test
+    void reusedKeyWithDifferentBodyIsRejected() throws Exception {
+        handler = ctx -> ctx.status(201).result("{\"id\":8}");
+
+        assertEquals(201, post("key-2", "{\"amount\":5}").statusCode());
+        HttpResponse<String> reused = post("key-2", "{\"amount\":500}");
+
+        assertEquals(422, reused.statusCode());
+        assertTrue(reused.body().contains("IDEMPOTENCY_KEY_REUSED"), reused.body());
+        assertEquals(1, runs.get());
+        assertEquals(1, store.getConflictCount());
+    }
+
+    @Test
+    void serverErrorIsNotStoredSoTheRetryRuns() throws Exception {
+        AtomicInteger attempt = new AtomicInteger();
+        handler = ctx -> {
+            if (attempt.incrementAndGet() == 1) {
+                ctx.status(503).result("{\"error\":\"busy\"}");
+            } else {
+                ctx.status(201).result("{\"id\":9}");
+            }
+        };
+
+        assertEquals(503, post("key-3", "{\"amount\":5}").statusCode());
+        HttpResponse<String> retry = post("key-3", "{\"amount\":5}");
+        HttpResponse<String> repeat = post("key-3", "{\"amount\":5}");
+
+        assertEquals(201, retry.statusCode());
+        assertTrue(retry.headers().firstValue("Idempotent-Replayed").isEmpty());
+        assertEquals(201, repeat.statusCode());
+        assertEquals("true", repeat.headers().firstValue("Idempotent-Replayed").orElse(null));
+        assertEquals(2, runs.get());
+    }
+
+    private HttpResponse<String> post(String key, String body) throws Exception {
+        return postAsync(key, body).get(10, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<HttpResponse<String>> postAsync(String key, String body) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + "/transactions"))
+                .header(IdempotencyStore.HEADER, key)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
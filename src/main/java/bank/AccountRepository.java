@@ -4,6 +4,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -33,19 +34,30 @@ public class AccountRepository {
         // TODO: prevent race conditions when multiple accounts are created
         // simultaneously (synchronize sequence generation).
         long customerId = findCustomerId(account.getCustomer());
-        String sql = "INSERT INTO accounts (customer_id, account_type, account_number) "
-                + "VALUES (?, ?, ?)";
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setLong(1, customerId);
-            statement.setString(2, account.getClass().getSimpleName().toUpperCase());
-            String acctNum = generateAccountNumber(connection);
-            statement.setString(3, acctNum);
-            statement.executeUpdate();
+        int shard = databaseManager.shardForCustomer(customerId);
+        String sql = "INSERT INTO accounts (id, customer_id, account_type, account_number) "
+                + "VALUES (" + databaseManager.newAccountIdSql(shard) + ", ?, ?, ?)";
+        String acctNum = generateNewAccountNumber();
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.addAccount");
+        event.userId = customerId;
+        event.lookupKey = acctNum;
+        try (Connection connection = databaseManager.getShardConnection(shard)) {
+            event.rows = DatabaseManager.inTransaction(connection, c -> {
+                try (PreparedStatement statement = c.prepareStatement(sql)) {
+                    statement.setLong(1, customerId);
+                    statement.setString(2, account.getClass().getSimpleName().toUpperCase());
+                    statement.setString(3, acctNum);
+                    int rows = statement.executeUpdate();
+                    Outbox.accountChanged(c, "created", acctNum);
+                    return rows;
+                }
+            });
             account.setAccountNumber(acctNum);
             accountList.add(account);
         } catch (SQLException e) {
             throw new RuntimeException("Unable to add account for " + account.getCustomer().getUserName(), e);
+        } finally {
+            event.commit();
         }
     }
 
@@ -56,14 +68,60 @@ public class AccountRepository {
         long customerId = findCustomerId(account.getCustomer());
         String sql = "DELETE FROM accounts "
                 + "WHERE customer_id = ? AND account_number = ?;";
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setLong(1, customerId);
-            statement.setString(2, account.getAccountNumber());
-            statement.executeUpdate();
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.deleteAccount");
+        event.userId = customerId;
+        event.lookupKey = account.getAccountNumber();
+        try (Connection connection = databaseManager.getConnectionForCustomer(customerId)) {
+            event.rows = DatabaseManager.inTransaction(connection, c -> {
+                Outbox.accountChanged(c, "deleted", account.getAccountNumber());
+                try (PreparedStatement statement = c.prepareStatement(sql)) {
+                    statement.setLong(1, customerId);
+                    statement.setString(2, account.getAccountNumber());
+                    return statement.executeUpdate();
+                }
+            });
             accountList.removeIf(existing -> existing.getAccountNumber().equals(account.getAccountNumber()));
         } catch (SQLException e) {
             throw new RuntimeException("Unable to delete account for " + account.getCustomer().getUserName(), e);
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Deletes all of a customer's accounts with their transactions and balance slots, on the
+     * customer's shard, for when the customer is deleted. Nothing cascades from users: the
+     * shards do not hold the users table, and connections do not enable foreign keys.
+     *
+     * @return the number of accounts deleted
+     */
+    public int deleteAccountsForCustomer(long customerId) {
+        String owned = "SELECT id FROM main.accounts WHERE customer_id = ?";
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.deleteAccountsForCustomer");
+        event.userId = customerId;
+        try (Connection connection = databaseManager.getConnectionForCustomer(customerId)) {
+            int rows = DatabaseManager.inTransaction(connection, c -> {
+                Outbox.customerAccountsDeleted(c, customerId);
+                for (String sql : new String[] {
+                        "DELETE FROM main.account_balance_slots WHERE account_id IN (" + owned + ")",
+                        "DELETE FROM main.transactions WHERE account_id IN (" + owned + ")" }) {
+                    try (PreparedStatement statement = c.prepareStatement(sql)) {
+                        statement.setLong(1, customerId);
+                        statement.executeUpdate();
+                    }
+                }
+                try (PreparedStatement statement = c.prepareStatement(
+                        "DELETE FROM main.accounts WHERE customer_id = ?")) {
+                    statement.setLong(1, customerId);
+                    return statement.executeUpdate();
+                }
+            });
+            event.rows = rows;
+            return rows;
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to delete accounts for customer " + customerId, e);
+        } finally {
+            event.commit();
         }
     }
 
@@ -78,10 +136,18 @@ public class AccountRepository {
         }
 
         String sql = "DELETE FROM accounts WHERE account_number = ?";
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, accountNumber);
-            int rows = statement.executeUpdate();
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.deleteAccountByNumber");
+        event.lookupKey = accountNumber;
+        try {
+            // Account numbers are reserved in the directory, so at most one shard deletes a row.
+            int rows = databaseManager.forEachShard(connection -> DatabaseManager.inTransaction(connection, c -> {
+                Outbox.accountChanged(c, "deleted", accountNumber);
+                try (PreparedStatement statement = c.prepareStatement(sql)) {
+                    statement.setString(1, accountNumber);
+                    return statement.executeUpdate();
+                }
+            })).stream().mapToInt(Integer::intValue).sum();
+            event.rows = rows;
             if (rows > 0) {
                 if (logs != null) {
                     logs.append(
@@ -95,20 +161,25 @@ public class AccountRepository {
             }
         } catch (SQLException e) {
             throw new RuntimeException("Error deleting account", e);
+        } finally {
+            event.commit();
         }
     }
 
     public void display(Customer customer) {
         System.out.println("Displaying accounts for customer: " + customer.getUserName());
         long customerId = findCustomerId(customer);
-        String sql = "SELECT account_number, account_type, balance, created_at "
-                + "FROM accounts "
-                + "WHERE customer_id = ?;";
-        try (Connection connection = databaseManager.getConnection();
+        String sql = "SELECT a.account_number, a.account_type, " + LedgerService.BALANCE_SQL + " AS balance, a.created_at "
+                + "FROM accounts a "
+                + "WHERE a.customer_id = ?;";
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.display");
+        event.userId = customerId;
+        try (Connection connection = databaseManager.getConnectionForCustomer(customerId);
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setLong(1, customerId);
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
+                    event.rows++;
                     System.out.printf("Account %s type=%s balance=%.2f created=%s%n",
                             resultSet.getString("account_number"),
                             resultSet.getString("account_type"),
@@ -118,6 +189,8 @@ public class AccountRepository {
             }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to display accounts for " + customer.getUserName(), e);
+        } finally {
+            event.commit();
         }
     }
 
@@ -138,23 +211,19 @@ public class AccountRepository {
         String sql = "SELECT a.account_type, a.account_number, u.first_name, u.last_name, u.username, u.password "
                 + "FROM accounts a "
                 + "JOIN users u ON u.id = a.customer_id;";
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql);
-                ResultSet resultSet = statement.executeQuery()) {
-            while (resultSet.next()) {
-                Customer owner = new Customer(
-                        resultSet.getString("first_name"),
-                        resultSet.getString("last_name"),
-                        resultSet.getString("username"),
-                        resultSet.getString("password"));
-                accountList.add(createAccountInstance(resultSet.getString("account_type"), owner,
-                        resultSet.getString("account_number")));
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.load");
+        try {
+            for (List<Account> shardAccounts : databaseManager.forEachShard(connection -> queryAccounts(connection, sql))) {
+                accountList.addAll(shardAccounts);
             }
             if (!accountList.isEmpty()) {
                 accountType = accountList.get(accountList.size() - 1);
             }
+            event.rows = accountList.size();
         } catch (SQLException e) {
             throw new RuntimeException("Unable to load accounts from the database", e);
+        } finally {
+            event.commit();
         }
     }
 
@@ -183,11 +252,14 @@ public class AccountRepository {
                 "JOIN users u ON u.id = a.customer_id " +
                 "WHERE a.id = ?";
 
-        try (Connection connection = databaseManager.getConnection();
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.getAccountById");
+        event.accountId = accountId;
+        try (Connection connection = databaseManager.getConnectionForAccount(accountId);
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setLong(1, accountId);
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
+                    event.rows = 1;
                     Customer owner = new Customer(
                             resultSet.getString("first_name"),
                             resultSet.getString("last_name"),
@@ -199,6 +271,8 @@ public class AccountRepository {
             }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to get account by ID", e);
+        } finally {
+            event.commit();
         }
         throw new IllegalStateException("Account with ID " + accountId + " does not exist.");
     }
@@ -212,22 +286,21 @@ public class AccountRepository {
                 "JOIN users u ON u.id = a.customer_id " +
                 "WHERE a.account_number = ?";
 
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, accountNumber);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    Customer owner = new Customer(
-                            resultSet.getString("first_name"),
-                            resultSet.getString("last_name"),
-                            resultSet.getString("username"),
-                            resultSet.getString("password"));
-                    return createAccountInstance(resultSet.getString("account_type"), owner,
-                            resultSet.getString("account_number"));
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.getAccountByNumber");
+        event.lookupKey = accountNumber;
+        try {
+            // The number does not say which shard holds it.
+            for (List<Account> found : databaseManager.forEachShard(
+                    connection -> queryAccounts(connection, sql, accountNumber))) {
+                if (!found.isEmpty()) {
+                    event.rows = 1;
+                    return found.get(0);
                 }
             }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to get account by number", e);
+        } finally {
+            event.commit();
         }
         throw new IllegalStateException("Account with number " + accountNumber + " does not exist.");
     }
@@ -260,33 +333,39 @@ public class AccountRepository {
             sql.append(" AND u.username = ?");
         }
 
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql.toString())) {
-
-            int paramIndex = 1;
-            if (hasNumber) {
-                statement.setString(paramIndex++, accountNumber);
-            }
-            if (hasType) {
-                statement.setString(paramIndex++, accountType.toUpperCase());
-            }
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.search");
+        event.lookupKey = hasNumber ? accountNumber : username;
+        List<String> params = new ArrayList<>();
+        if (hasNumber) {
+            params.add(accountNumber);
+        }
+        if (hasType) {
+            params.add(accountType.toUpperCase());
+        }
+        if (hasUser) {
+            params.add(username);
+        }
+        String[] values = params.toArray(new String[0]);
+        try {
             if (hasUser) {
-                statement.setString(paramIndex++, username);
-            }
-
-            try (ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    Customer owner = new Customer(
-                            resultSet.getString("first_name"),
-                            resultSet.getString("last_name"),
-                            resultSet.getString("username"),
-                            resultSet.getString("password"));
-                    results.add(createAccountInstance(resultSet.getString("account_type"), owner,
-                            resultSet.getString("account_number")));
+                // A username names one customer, so only their shard can match.
+                IdentityCache.Identity owner = IdentityCache.shared().byUsername(username);
+                if (owner != null) {
+                    try (Connection connection = databaseManager.getConnectionForCustomer(owner.id())) {
+                        results.addAll(queryAccounts(connection, sql.toString(), values));
+                    }
+                }
+            } else {
+                for (List<Account> found : databaseManager.forEachShard(
+                        connection -> queryAccounts(connection, sql.toString(), values))) {
+                    results.addAll(found);
                 }
             }
+            event.rows = results.size();
         } catch (SQLException e) {
             throw new RuntimeException("Unable to search accounts", e);
+        } finally {
+            event.commit();
         }
 
         return results;
@@ -298,13 +377,20 @@ public class AccountRepository {
      * found.
      */
     public void displayAccountsForCustomer(String username) {
-        String sql = "SELECT a.account_type, a.account_number, a.balance, u.first_name, u.last_name, u.username, u.password "
+        String sql = "SELECT a.account_type, a.account_number, " + LedgerService.BALANCE_SQL + " AS balance, u.first_name, u.last_name, u.username, u.password "
                 +
                 "FROM accounts a " +
                 "JOIN users u ON u.id = a.customer_id " +
                 "WHERE u.username = ?";
 
-        try (Connection connection = databaseManager.getConnection();
+        IdentityCache.Identity owner = IdentityCache.shared().byUsername(username);
+        if (owner == null) {
+            System.out.println("No accounts found for user: " + username);
+            return;
+        }
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.displayAccountsForCustomer");
+        event.lookupKey = username;
+        try (Connection connection = databaseManager.getConnectionForCustomer(owner.id());
                 PreparedStatement statement = connection.prepareStatement(sql)) {
 
             statement.setString(1, username);
@@ -313,6 +399,7 @@ public class AccountRepository {
             try (ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
                     found = true;
+                    event.rows++;
                     Account account = mapRowToAccount(resultSet);
                     String accountNumber = resultSet.getString("account_number");
                     double balance = resultSet.getDouble("balance");
@@ -330,72 +417,72 @@ public class AccountRepository {
 
         } catch (SQLException e) {
             throw new RuntimeException("Unable to display accounts for user: " + username, e);
+        } finally {
+            event.commit();
         }
     }
 
     /**
      * Generates the next globally unique account number in the format
      * ACCT-XXXXXXXXXX.
-     * Relies on the database to track the highest value, avoiding duplicates even
-     * across restarts.
+     * The number is reserved in the directory's account_numbers table by a single insert,
+     * which SQLite serializes, so concurrent callers never get the same number even when
+     * their accounts land on different shards. A NULL key becomes one above the highest
+     * row; DatabaseManager.initialize seeds that row from the numbers already in use.
      */
-    private String generateAccountNumber(Connection connection) throws SQLException {
-        // Fetch the most recent numeric identifier and increment it for a global
-        // sequence.
-        // TODO: handle concurrent increments safely (e.g., using database sequences or
-        // locks).
-        String sql = "SELECT MAX(account_number) AS last_number FROM accounts";
-        try (PreparedStatement statement = connection.prepareStatement(sql);
-                ResultSet resultSet = statement.executeQuery()) {
-            long nextValue = 1;
-            if (resultSet.next()) {
-                String lastValue = resultSet.getString("last_number");
-                if (lastValue != null && lastValue.matches("ACCT-(\\d{10})")) {
-                    nextValue = Long.parseLong(lastValue.substring(5)) + 1;
-                }
+    private String generateAccountNumber() throws SQLException {
+        try (Connection connection = databaseManager.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO account_numbers (number) VALUES (NULL)");
+            try (ResultSet resultSet = statement.executeQuery("SELECT last_insert_rowid()")) {
+                resultSet.next();
+                return String.format("ACCT-%010d", resultSet.getLong(1));
             }
-            return String.format("ACCT-%010d", nextValue);
         }
     }
 
     public String generateNewAccountNumber() {
-        try (Connection connection = databaseManager.getConnection()) {
-            return generateAccountNumber(connection);
+        try {
+            return generateAccountNumber();
         } catch (SQLException e) {
             throw new RuntimeException("Unable to generate account number", e);
         }
     }
 
     public void createAccount(long userId, String accountType, String accountNumber, double balance) {
-        String sql = "INSERT INTO accounts (customer_id, account_type, account_number, balance) VALUES (?, ?, ?, ?)";
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setLong(1, userId);
-            statement.setString(2, accountType.toUpperCase());
-            statement.setString(3, accountNumber);
-            statement.setDouble(4, balance);
-            statement.executeUpdate();
+        int shard = databaseManager.shardForCustomer(userId);
+        String sql = "INSERT INTO accounts (id, customer_id, account_type, account_number, balance) VALUES ("
+                + databaseManager.newAccountIdSql(shard) + ", ?, ?, ?, ?)";
+        RepositoryEvent event = RepositoryEvent.start("AccountRepository.createAccount");
+        event.userId = userId;
+        event.lookupKey = accountNumber;
+        try (Connection connection = databaseManager.getShardConnection(shard)) {
+            event.rows = DatabaseManager.inTransaction(connection, c -> {
+                try (PreparedStatement statement = c.prepareStatement(sql)) {
+                    statement.setLong(1, userId);
+                    statement.setString(2, accountType.toUpperCase());
+                    statement.setString(3, accountNumber);
+                    statement.setDouble(4, balance);
+                    int rows = statement.executeUpdate();
+                    Outbox.accountChanged(c, "created", accountNumber);
+                    return rows;
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Unable to create account", e);
+        } finally {
+            event.commit();
         }
     }
 
     private long findCustomerId(Customer customer) {
         // Look up the numeric database identifier for this username so we can store it
         // as the account owner.
-        String sql = "SELECT id FROM users WHERE username = ?";
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, customer.getUserName());
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return resultSet.getLong("id");
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to locate customer " + customer.getUserName(), e);
+        IdentityCache.Identity identity = IdentityCache.shared().byUsername(customer.getUserName());
+        if (identity == null) {
+            throw new IllegalStateException("Customer " + customer.getUserName() + " does not exist in the database.");
         }
-        throw new IllegalStateException("Customer " + customer.getUserName() + " does not exist in the database.");
+        return identity.id();
     }
 
     private Account createAccountInstance(String accountType, Customer owner, String accountNumber) {
@@ -420,6 +507,22 @@ public class AccountRepository {
         return account;
     }
 
+    // Rows of (account_type, account_number, first_name, last_name, username, password).
+    private List<Account> queryAccounts(Connection connection, String sql, String... params) throws SQLException {
+        List<Account> accounts = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                statement.setString(i + 1, params[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    accounts.add(mapRowToAccount(resultSet));
+                }
+            }
+        }
+        return accounts;
+    }
+
     private Account mapRowToAccount(ResultSet resultSet) throws SQLException {
         Customer owner = new Customer(
                 resultSet.getString("first_name"),
@@ -42,7 +42,7 @@ public class Admin extends Employee {
                     userToModify.getPassword(),
                     accountRepository,
                     userRepository);
-            userRepository.addUsers(promoted);
+            userRepository.addUserWithEncodedPassword(promoted);
             System.out.println("Role updated in database for " + promoted.getUserName());
             return;
         }
@@ -56,7 +56,7 @@ public class Admin extends Employee {
                     userToModify.getPassword(),
                     accountRepository,
                     userRepository);
-            userRepository.addUsers(demoted);
+            userRepository.addUserWithEncodedPassword(demoted);
             System.out.println("Role updated in database for " + demoted.getUserName());
             return;
         }
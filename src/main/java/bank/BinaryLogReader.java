@@ -0,0 +1,257 @@
+package bank;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Forward-only cursor over a binary audit log written by {@link Logs} with
+ * {@link LogOptions.Format#BINARY}. The file is memory-mapped and decoded in place: moving to the
+ * next entry only reads fixed-width fields, actor/action/target resolve to shared dictionary
+ * strings, and details are decoded only when asked for. That keeps compliance scans in the
+ * millions of entries per second.
+ *
+ * Layout (big-endian):
+ *   header  int magic "BAUD", byte version
+ *   define  byte 'D', int id, int length, UTF-8 bytes        (dictionary string, before first use)
+ *   entry   byte 'E', long epochSecond, int actor, int action, int target, int detailsLength, bytes
+ * Ids of -1 stand for null and a detailsLength of -1 for null details. A truncated or unknown
+ * trailing record ends the scan; {@link #validEnd()} reports where the good data stops.
+ *
+ * Files are mapped whole, so a single binary log is limited to 2 GB.
+ */
+public final class BinaryLogReader {
+    static final int MAGIC = 0x42415544; // "BAUD"
+    static final byte VERSION = 1;
+    static final int HEADER_BYTES = 5;
+    static final byte DEFINE = 'D';
+    static final byte ENTRY = 'E';
+    static final int ENTRY_BYTES = 1 + 8 + 4 + 4 + 4 + 4;
+
+    private final ByteBuffer buffer;
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int validEnd;
+
+    private long epochSecond;
+    private int actorId;
+    private int actionId;
+    private int targetId;
+    private int detailsAt;
+    private int detailsLength;
+
+    private BinaryLogReader(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() >= HEADER_BYTES) {
+            if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+                throw new IOException("Not a binary audit log");
+            }
+        } else {
+            buffer.position(buffer.limit());
+        }
+        validEnd = buffer.position();
+    }
+
+    public static BinaryLogReader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Binary audit log is larger than 2 GB: " + file);
+            }
+            // The mapping stays valid after the channel is closed.
+            ByteBuffer buffer = size == 0
+                    ? ByteBuffer.allocate(0)
+                    : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new BinaryLogReader(buffer);
+        }
+    }
+
+    /**
+     * Checks the file with the same rules as {@link #next()} but through a plain stream, so no
+     * mapping is left behind when the writer truncates a torn tail (a mapped file cannot be
+     * truncated on Windows). Fills the dictionary and returns where the good data stops.
+     */
+    static long recover(Path file, List<String> dictionary) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            long validEnd;
+            try {
+                if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                    throw new IOException("Not a binary audit log");
+                }
+                validEnd = HEADER_BYTES;
+            } catch (EOFException e) {
+                return 0;
+            }
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == DEFINE) {
+                        int id = in.readInt();
+                        int length = in.readInt();
+                        if (id != dictionary.size() || length < 0) {
+                            return validEnd;
+                        }
+                        byte[] bytes = new byte[length];
+                        in.readFully(bytes);
+                        dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+                        validEnd += 9 + length;
+                    } else if (type == ENTRY) {
+                        in.readLong();
+                        int size = dictionary.size();
+                        for (int i = 0; i < 3; i++) {
+                            int id = in.readInt();
+                            if (id < -1 || id >= size) {
+                                return validEnd;
+                            }
+                        }
+                        int detailsLength = Math.max(in.readInt(), 0);
+                        in.readFully(new byte[detailsLength]);
+                        validEnd += ENTRY_BYTES + detailsLength;
+                    } else {
+                        return validEnd;
+                    }
+                }
+            } catch (EOFException e) {
+                return validEnd;
+            }
+        }
+    }
+
+    /**
+     * Advances to the next entry, absorbing any dictionary definitions on the way.
+     */
+    public boolean next() {
+        while (buffer.remaining() > 0) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            if (type == DEFINE && buffer.remaining() >= 8) {
+                int id = buffer.getInt();
+                int length = buffer.getInt();
+                if (id != dictionary.size() || length < 0 || buffer.remaining() < length) {
+                    return stopAt(start);
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                String value = new String(bytes, StandardCharsets.UTF_8);
+                dictionary.add(value);
+                ids.put(value, id);
+                validEnd = buffer.position();
+            } else if (type == ENTRY && buffer.remaining() >= ENTRY_BYTES - 1) {
+                epochSecond = buffer.getLong();
+                actorId = buffer.getInt();
+                actionId = buffer.getInt();
+                targetId = buffer.getInt();
+                detailsLength = buffer.getInt();
+                detailsAt = buffer.position();
+                int skip = Math.max(detailsLength, 0);
+                if (buffer.remaining() < skip || !defined(actorId) || !defined(actionId) || !defined(targetId)) {
+                    return stopAt(start);
+                }
+                buffer.position(detailsAt + skip);
+                validEnd = buffer.position();
+                return true;
+            } else {
+                return stopAt(start);
+            }
+        }
+        return false;
+    }
+
+    public long epochSecond() {
+        return epochSecond;
+    }
+
+    public LocalDateTime timestamp() {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    public String actor() {
+        return lookup(actorId);
+    }
+
+    public String action() {
+        return lookup(actionId);
+    }
+
+    public String target() {
+        return lookup(targetId);
+    }
+
+    public String details() {
+        if (detailsLength < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[detailsLength];
+        buffer.get(detailsAt, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The current entry in the text log format, for exports and console listings.
+     */
+    public String toLine() {
+        return new LogEntry(timestamp(), actor(), action(), target(), details()).toLine();
+    }
+
+    /**
+     * Byte position just past the last complete record read so far.
+     */
+    long validEnd() {
+        return validEnd;
+    }
+
+    List<String> dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Streams the text form of every entry matching the non-null criteria. Criteria are
+     * resolved to dictionary ids as their definitions go by, so non-matching entries cost a
+     * few int compares and are never decoded.
+     */
+    void forEachMatching(String actor, String action, long fromEpoch, long toEpoch, Consumer<String> lines) {
+        int known = -1;
+        int wantedActor = -1;
+        int wantedAction = -1;
+        while (next()) {
+            if (dictionary.size() != known) {
+                known = dictionary.size();
+                wantedActor = actor == null ? -1 : ids.getOrDefault(actor, -2);
+                wantedAction = action == null ? -1 : ids.getOrDefault(action, -2);
+            }
+            if ((actor != null && actorId != wantedActor)
+                    || (action != null && actionId != wantedAction)
+                    || epochSecond < fromEpoch || epochSecond > toEpoch) {
+                continue;
+            }
+            lines.accept(toLine());
+        }
+    }
+
+    private boolean defined(int id) {
+        return id >= -1 && id < dictionary.size();
+    }
+
+    private String lookup(int id) {
+        return id < 0 ? null : dictionary.get(id);
+    }
+
+    private boolean stopAt(int position) {
+        buffer.position(position).limit(position);
+        return false;
+    }
+}
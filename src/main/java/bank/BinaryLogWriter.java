@@ -0,0 +1,141 @@
+package bank;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends entries to a binary audit log (format described on {@link BinaryLogReader}).
+ * Strings are dictionary-encoded: the first time an actor, action or target is seen a define
+ * record is written ahead of the entry, and later entries refer to it by id.
+ *
+ * Opening the file replays it (streamed, not mapped) to rebuild the dictionary and truncates any
+ * torn record left by a crash. The same recovery runs when the channel is reopened after a close or
+ * a failed write, so the in-memory dictionary never gets ahead of the file.
+ */
+final class BinaryLogWriter implements Closeable {
+    private final Path path;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private FileChannel channel;
+
+    BinaryLogWriter(Path path) throws IOException {
+        this.path = path;
+        open();
+    }
+
+    synchronized void append(List<LogEntry> batch) throws IOException {
+        if (channel == null) {
+            open();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (LogEntry entry : batch) {
+            int actor = idFor(entry.actor(), out);
+            int action = idFor(entry.action(), out);
+            int target = idFor(entry.target(), out);
+            out.writeByte(BinaryLogReader.ENTRY);
+            out.writeLong(entry.epochSecond());
+            out.writeInt(actor);
+            out.writeInt(action);
+            out.writeInt(target);
+            writeString(entry.details(), out);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    synchronized void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Closes the channel; the next append reopens and re-validates the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            FileChannel toClose = channel;
+            channel = null;
+            toClose.close();
+        }
+    }
+
+    private void open() throws IOException {
+        ids.clear();
+        long validEnd = 0;
+        if (Files.exists(path) && Files.size(path) > 0) {
+            List<String> dictionary = new ArrayList<>();
+            validEnd = BinaryLogReader.recover(path, dictionary);
+            for (int i = 0; i < dictionary.size(); i++) {
+                ids.put(dictionary.get(i), i);
+            }
+        }
+
+        FileChannel opened = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (opened.size() > validEnd) {
+                System.err.println("Truncating " + (opened.size() - validEnd) + " trailing bytes from " + path);
+                opened.truncate(validEnd);
+            }
+            opened.position(validEnd);
+            if (validEnd == 0) {
+                ByteBuffer header = ByteBuffer.allocate(BinaryLogReader.HEADER_BYTES)
+                        .putInt(BinaryLogReader.MAGIC).put(BinaryLogReader.VERSION).flip();
+                while (header.hasRemaining()) {
+                    opened.write(header);
+                }
+            }
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        channel = opened;
+    }
+
+    private int idFor(String value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        int newId = ids.size();
+        ids.put(value, newId);
+        out.writeByte(BinaryLogReader.DEFINE);
+        out.writeInt(newId);
+        writeString(value, out);
+        return newId;
+    }
+
+    private static void writeString(String value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
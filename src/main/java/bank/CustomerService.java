@@ -143,9 +143,8 @@ public class CustomerService {
      */
     public boolean loginUser(String userName, String password, Branch branch) {
         List<User> matches = userRepository.search(userName);
-        String branchTarget = (branch != null) ? "BRANCH_" + branch.getAddress() : "BRANCH_UNKNOWN";
-
         if (matches.isEmpty()) {
+            String branchTarget = (branch != null) ? "BRANCH_" + branch.getAddress() : "BRANCH_UNKNOWN";
             if (logs != null) {
                 logs.append(
                     userName,
@@ -156,9 +155,20 @@ public class CustomerService {
             }
             return false;
         }
+        return loginUser(matches.get(0), password, branch);
+    }
 
-        User user = matches.get(0);
-        if (user.getPassword().equals(password)) {
+    /**
+     * Same as {@link #loginUser(String, String, Branch)} for a user the caller has already
+     * loaded, so the login path does not look the username up a second time.
+     */
+    public boolean loginUser(User user, String password, Branch branch) {
+        String branchTarget = (branch != null) ? "BRANCH_" + branch.getAddress() : "BRANCH_UNKNOWN";
+        PasswordHasher hasher = userRepository.getPasswordHasher();
+        if (hasher.verify(password, user.getPassword())) {
+            if (hasher.needsRehash(user.getPassword())) {
+                upgradePassword(user, password);
+            }
             if (branch != null) {
                 branch.userLogin(user);
             }
@@ -183,4 +193,17 @@ public class CustomerService {
         }
         return false;
     }
+
+    /**
+     * Re-stores a legacy (plaintext, SHA-256 or lower-cost) password as a current hash. The
+     * user has just proven the password, so a failure here must not fail the login.
+     */
+    private void upgradePassword(User user, String password) {
+        try {
+            user.setPassword(userRepository.getPasswordHasher().hash(password));
+            userRepository.updatePassword(user);
+        } catch (RuntimeException e) {
+            System.err.println("Unable to upgrade password hash for " + user.getUserName() + ": " + e.getMessage());
+        }
+    }
 }
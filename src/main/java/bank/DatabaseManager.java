@@ -1,6 +1,9 @@
 package bank;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
@@ -8,14 +11,98 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Coordinates the SQLite database lifecycle and makes sure the schema exists.
+ *
+ * With bank.db.shards set above 1, accounts, their transactions and balance slots are
+ * partitioned by a hash of customer_id across that many files (bank-shard-N.db next to
+ * bank.db), each its own SQLite writer; users and the request queues stay in bank.db, the
+ * directory. An account's id encodes its shard (id mod shard count), so a point lookup by
+ * account id or by customer opens exactly one shard. Lists and searches that span customers
+ * run on every shard in parallel ({@link #forEachShard}). Shard connections attach the
+ * directory as "directory", so queries joining accounts to users work unchanged.
+ *
+ * With one shard (the default) bank.db is both the directory and the only shard.
  */
 public class DatabaseManager {
     private static final String DB_FILE = getDatabasePath();
     private static final String JDBC_URL = "jdbc:sqlite:" + DB_FILE;
+    private static final int SHARDS = Math.max(1, Integer.getInteger("bank.db.shards", 1));
+
+    // Upper bound on concurrently open connections per database file. Every caller opens its
+    // own connection, so this gate plays the role of the pool size: with handlers on
+    // virtual threads, thousands of requests can wait here cheaply instead of all
+    // hammering the single SQLite writer (and pinning carrier threads in the driver).
+    private static final int MAX_CONNECTIONS = Integer.getInteger("bank.db.maxConnections", 8);
+    private static final long CONNECTION_WAIT_MS = Long.getLong("bank.db.connectionWaitMs", 30_000L);
+    private static final Gate DIRECTORY_GATE = new Gate();
+    private static final Gate[] SHARD_GATES = new Gate[SHARDS];
+    private static final ExecutorService SCATTER = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("shard-scatter-", 0).factory());
+
+    static {
+        SHARD_GATES[0] = SHARDS == 1 ? DIRECTORY_GATE : new Gate();
+        for (int i = 1; i < SHARDS; i++) {
+            SHARD_GATES[i] = new Gate();
+        }
+    }
+
+    /**
+     * Connection permits for one database file. Connections already held by the current
+     * thread are counted, so helpers that open a second connection while the caller still
+     * holds one (e.g. per-row security lookups) reuse the caller's permit instead of
+     * deadlocking on the gate.
+     */
+    private static final class Gate {
+        private final Semaphore permits = new Semaphore(MAX_CONNECTIONS, true);
+        private final ThreadLocal<int[]> held = ThreadLocal.withInitial(() -> new int[1]);
+
+        int[] enter() throws SQLException {
+            int[] count = held.get();
+            if (count[0] == 0) {
+                try {
+                    if (!permits.tryAcquire(CONNECTION_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                        throw new SQLTimeoutException(
+                                "Timed out after " + CONNECTION_WAIT_MS + "ms waiting for a database connection");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a database connection", e);
+                }
+            }
+            count[0]++;
+            return count;
+        }
+
+        void exit(int[] count) {
+            count[0]--;
+            if (count[0] == 0) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Work run against one shard's connection.
+     */
+    @FunctionalInterface
+    public interface ShardWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
 
     private static String getDatabasePath() {
         String currentDir = System.getProperty("user.dir");
@@ -55,6 +142,17 @@ public class DatabaseManager {
             + "FOREIGN KEY (customer_id) REFERENCES users(id) ON DELETE CASCADE"
             + ");";
 
+    // The users table is in the directory, not in the shard, so a shard's accounts cannot
+    // reference it; deleting a customer deletes their accounts explicitly.
+    private static final String CREATE_SHARD_ACCOUNTS_TABLE = "CREATE TABLE IF NOT EXISTS accounts ("
+            + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "customer_id INTEGER NOT NULL,"
+            + "account_type TEXT NOT NULL,"
+            + "account_number TEXT NOT NULL UNIQUE,"
+            + "balance REAL NOT NULL DEFAULT 0,"
+            + "created_at TEXT DEFAULT CURRENT_TIMESTAMP"
+            + ");";
+
     private static final String CREATE_UNIQUE_CHECKING_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS idx_unique_checking ON accounts(customer_id, account_type) WHERE account_type = 'CHECK';";
 
     private static final String CREATE_TRANSACTIONS_TABLE = "CREATE TABLE IF NOT EXISTS transactions ("
@@ -64,9 +162,40 @@ public class DatabaseManager {
             + "type TEXT NOT NULL,"
             + "description TEXT,"
             + "created_at TEXT DEFAULT CURRENT_TIMESTAMP,"
+            + "transfer_id TEXT,"
+            + "FOREIGN KEY (account_id) REFERENCES accounts(id) ON DELETE CASCADE"
+            + ");";
+
+    // Credits to hot accounts not yet folded into accounts.balance (see LedgerService).
+    private static final String CREATE_BALANCE_SLOTS_TABLE = "CREATE TABLE IF NOT EXISTS account_balance_slots ("
+            + "account_id INTEGER NOT NULL,"
+            + "slot INTEGER NOT NULL,"
+            + "balance REAL NOT NULL DEFAULT 0,"
+            + "PRIMARY KEY (account_id, slot),"
             + "FOREIGN KEY (account_id) REFERENCES accounts(id) ON DELETE CASCADE"
             + ");";
 
+    // Change feed written in the same transaction as the change (see Outbox, OutboxTailer).
+    private static final String CREATE_OUTBOX_TABLE = "CREATE TABLE IF NOT EXISTS outbox ("
+            + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "topic TEXT NOT NULL,"
+            + "aggregate_id INTEGER,"
+            + "customer_id INTEGER,"
+            + "payload TEXT NOT NULL,"
+            + "created_at INTEGER NOT NULL"
+            + ");";
+
+    private static final String CREATE_OUTBOX_CHECKPOINTS_TABLE = "CREATE TABLE IF NOT EXISTS outbox_checkpoints ("
+            + "consumer TEXT PRIMARY KEY,"
+            + "last_id INTEGER NOT NULL"
+            + ");";
+
+    // Every account number ever handed out, in the directory; the primary key keeps two
+    // shards from being given the same number.
+    private static final String CREATE_ACCOUNT_NUMBERS_TABLE = "CREATE TABLE IF NOT EXISTS account_numbers ("
+            + "number INTEGER PRIMARY KEY"
+            + ");";
+
     public void initialize() {
         // Create the physical db file if it does not already exist, then bootstrap
         // tables + PRAGMAs.
@@ -83,12 +212,81 @@ public class DatabaseManager {
             statement.executeUpdate(CREATE_ACCOUNTS_TABLE);
             statement.executeUpdate(CREATE_UNIQUE_CHECKING_INDEX);
             statement.executeUpdate(CREATE_TRANSACTIONS_TABLE);
+            // Links the debit and credit rows of a transfer (see LedgerService).
+            addColumnIfMissing(connection, "transactions", "transfer_id", "TEXT");
+            statement.executeUpdate(CREATE_BALANCE_SLOTS_TABLE);
             statement.executeUpdate(CREATE_ACCOUNT_REQUESTS_TABLE);
             statement.executeUpdate(CREATE_PASSWORD_RESET_REQUESTS_TABLE);
             statement.executeUpdate(CREATE_ACCOUNT_DELETION_REQUESTS_TABLE);
+            statement.executeUpdate(CREATE_OUTBOX_TABLE);
+            statement.executeUpdate(CREATE_OUTBOX_CHECKPOINTS_TABLE);
+            statement.executeUpdate(CREATE_ACCOUNT_NUMBERS_TABLE);
+            if (SHARDS > 1) {
+                requireNoDirectoryAccounts(statement);
+            }
         } catch (SQLException e) {
             throw new RuntimeException("Failed to initialize database schema", e);
         }
+        for (int shard = 0; SHARDS > 1 && shard < SHARDS; shard++) {
+            initializeShard(shard);
+        }
+        seedAccountNumbers();
+    }
+
+    // Accounts created before account_numbers existed hold numbers the table has never seen.
+    // The highest one in use goes in as a row, so the sequence continues above it and
+    // AccountRepository can reserve the next number with one directory insert.
+    private void seedAccountNumbers() {
+        try {
+            long inUse = 0;
+            for (String last : forEachShard(connection -> {
+                try (Statement statement = connection.createStatement();
+                        ResultSet rs = statement.executeQuery("SELECT MAX(account_number) FROM main.accounts")) {
+                    return rs.next() ? rs.getString(1) : null;
+                }
+            })) {
+                if (last != null && last.matches("ACCT-(\\d{10})")) {
+                    inUse = Math.max(inUse, Long.parseLong(last.substring(5)));
+                }
+            }
+            if (inUse == 0) {
+                return;
+            }
+            try (Connection connection = getConnection();
+                    PreparedStatement statement = connection.prepareStatement(
+                            "INSERT OR IGNORE INTO account_numbers (number) VALUES (?)")) {
+                statement.setLong(1, inUse);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to seed account numbers", e);
+        }
+    }
+
+    private void initializeShard(int shard) {
+        ensureFileExists(Path.of(shardFile(shard)));
+        try (Connection connection = getShardConnection(shard);
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate(CREATE_SHARD_ACCOUNTS_TABLE);
+            statement.executeUpdate(CREATE_UNIQUE_CHECKING_INDEX);
+            statement.executeUpdate(CREATE_TRANSACTIONS_TABLE);
+            statement.executeUpdate(CREATE_BALANCE_SLOTS_TABLE);
+            statement.executeUpdate(CREATE_OUTBOX_TABLE);
+            statement.executeUpdate(CREATE_OUTBOX_CHECKPOINTS_TABLE);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to initialize shard " + shard, e);
+        }
+    }
+
+    // Account ids in bank.db do not encode a shard, so they cannot be routed. Sharding is
+    // for a fresh deployment; existing accounts have to be re-created on their shards.
+    private static void requireNoDirectoryAccounts(Statement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM accounts")) {
+            if (rs.next() && rs.getLong(1) > 0) {
+                throw new IllegalStateException("bank.db.shards=" + SHARDS + " but " + DB_FILE
+                        + " still holds accounts; start sharded mode from a database without accounts");
+            }
+        }
     }
 
     private void migrateAccountsTable(Connection connection) throws SQLException {
@@ -152,6 +350,21 @@ public class DatabaseManager {
         }
     }
 
+    private static void addColumnIfMissing(Connection connection, String table, String column, String type)
+            throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        }
+    }
+
     private static final String CREATE_ACCOUNT_REQUESTS_TABLE = "CREATE TABLE IF NOT EXISTS account_requests ("
             + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
             + "user_id INTEGER NOT NULL,"
@@ -185,19 +398,235 @@ public class DatabaseManager {
             + "FOREIGN KEY (account_id) REFERENCES accounts(id) ON DELETE CASCADE"
             + ");";
 
+    /**
+     * A connection to the directory (bank.db): users, request queues and everything else that
+     * is not partitioned by customer.
+     */
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(JDBC_URL);
+        return open(JDBC_URL, List.of(DIRECTORY_GATE), null);
+    }
+
+    public int getShardCount() {
+        return SHARDS;
+    }
+
+    public int shardForCustomer(long customerId) {
+        // Spread sequential ids; user ids are not random.
+        return SHARDS == 1 ? 0 : Math.floorMod(Long.hashCode(customerId * 0x9E3779B97F4A7C15L), SHARDS);
+    }
+
+    public int shardForAccount(long accountId) {
+        return Math.floorMod(accountId, SHARDS);
+    }
+
+    /**
+     * A connection to one shard, with the directory attached for joins against users.
+     */
+    public Connection getShardConnection(int shard) throws SQLException {
+        if (SHARDS == 1) {
+            return getConnection();
+        }
+        Connection connection = open(shardUrl(shard), List.of(SHARD_GATES[shard]), null);
+        try (PreparedStatement attach = connection.prepareStatement("ATTACH DATABASE ? AS directory")) {
+            attach.setString(1, DB_FILE);
+            attach.execute();
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    public Connection getConnectionForCustomer(long customerId) throws SQLException {
+        return getShardConnection(shardForCustomer(customerId));
+    }
+
+    public Connection getConnectionForAccount(long accountId) throws SQLException {
+        return getShardConnection(shardForAccount(accountId));
+    }
+
+    /**
+     * One connection spanning several shards, for a transaction that must be atomic across
+     * them (a transfer between customers on different shards). The lowest shard is main and
+     * each other one is attached as {@link #shardSchema}; the directory is not attached.
+     * Transactions begin IMMEDIATE, which write-locks every attached file in that ascending
+     * order up front, so two such transactions cannot deadlock on each other's files.
+     */
+    public Connection getShardConnection(SortedSet<Integer> shards) throws SQLException {
+        if (shards.size() == 1) {
+            return getShardConnection(shards.first());
+        }
+        List<Gate> gates = new ArrayList<>(shards.size());
+        for (int shard : shards) {
+            gates.add(SHARD_GATES[shard]);
+        }
+        Properties properties = new Properties();
+        properties.setProperty("transaction_mode", "IMMEDIATE");
+        Connection connection = open(shardUrl(shards.first()), gates, properties);
+        try {
+            for (int shard : shards.tailSet(shards.first() + 1)) {
+                try (PreparedStatement attach = connection.prepareStatement(
+                        "ATTACH DATABASE ? AS " + shardSchema(shard))) {
+                    attach.setString(1, shardFile(shard));
+                    attach.execute();
+                }
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Schema name of a shard attached by {@link #getShardConnection(SortedSet)}.
+     */
+    public static String shardSchema(int shard) {
+        return "shard" + shard;
+    }
+
+    /**
+     * Runs the work on every shard, in parallel when there is more than one, and returns the
+     * results in shard order. The first failure is rethrown once all shards have finished.
+     */
+    public <T> List<T> forEachShard(ShardWork<T> work) throws SQLException {
+        if (SHARDS == 1) {
+            try (Connection connection = getShardConnection(0)) {
+                return List.of(work.run(connection));
+            }
+        }
+        List<Future<T>> futures = new ArrayList<>(SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            int shard = i;
+            futures.add(SCATTER.submit(() -> {
+                try (Connection connection = getShardConnection(shard)) {
+                    return work.run(connection);
+                }
+            }));
+        }
+        List<T> results = new ArrayList<>(SHARDS);
+        SQLException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof SQLException sql ? sql
+                            : new SQLException("Shard query failed", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while querying shards", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Runs the work as one transaction on the connection: committed if it returns, rolled
+     * back if it throws. Auto-commit is restored afterwards.
+     */
+    public static <T> T inTransaction(Connection connection, ShardWork<T> work) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            T result = work.run(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * SQL for the id of a new account on the given shard, to use as the id value of an
+     * INSERT INTO accounts. Ids on a shard are congruent to the shard number, so the id alone
+     * routes back to it; they are never reused, as with AUTOINCREMENT.
+     */
+    public String newAccountIdSql(int shard) {
+        if (SHARDS == 1) {
+            return "NULL";
+        }
+        return "(SELECT ((COALESCE(MAX(seq), 0) - " + shard + ") / " + SHARDS + " + 1) * " + SHARDS + " + " + shard
+                + " FROM sqlite_sequence WHERE name = 'accounts')";
+    }
+
+    private static String shardUrl(int shard) {
+        return "jdbc:sqlite:" + shardFile(shard);
+    }
+
+    private static String shardFile(int shard) {
+        return DB_FILE.substring(0, DB_FILE.length() - ".db".length()) + "-shard-" + shard + ".db";
+    }
+
+    private static Connection open(String url, List<Gate> gates, Properties properties) throws SQLException {
+        List<int[]> held = new ArrayList<>(gates.size());
+        try {
+            // Gates are always entered in shard order (directory first), like the file locks.
+            for (Gate gate : gates) {
+                held.add(gate.enter());
+            }
+            Connection connection = properties == null ? DriverManager.getConnection(url)
+                    : DriverManager.getConnection(url, properties);
+            return gated(connection, gates, held);
+        } catch (SQLException | RuntimeException e) {
+            release(gates, held);
+            throw e;
+        }
+    }
+
+    private static void release(List<Gate> gates, List<int[]> held) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            gates.get(i).exit(held.get(i));
+        }
+    }
+
+    /**
+     * Wraps the driver connection so closing it hands the permits back exactly once.
+     */
+    private static Connection gated(Connection connection, List<Gate> gates, List<int[]> held) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                        try {
+                            connection.close();
+                        } finally {
+                            if (closed.compareAndSet(false, true)) {
+                                release(gates, held);
+                            }
+                        }
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
     }
 
     private void ensureDatabaseFileExists() {
-        Path dbPath = Path.of(DB_FILE);
+        ensureFileExists(Path.of(DB_FILE));
+    }
+
+    private static void ensureFileExists(Path dbPath) {
         if (Files.exists(dbPath)) {
             return;
         }
         try {
             Files.createFile(dbPath);
+        } catch (FileAlreadyExistsException e) {
+            // Created concurrently by another initialize().
         } catch (IOException e) {
-            throw new RuntimeException("Unable to create database file " + DB_FILE, e);
+            throw new RuntimeException("Unable to create database file " + dbPath, e);
         }
     }
 }
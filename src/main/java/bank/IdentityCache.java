@@ -0,0 +1,147 @@
+package bank;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory id / username / role lookups for the users table. Handlers and repositories ask
+ * "what is this user's id" or "what role does this username have" several times per request;
+ * after the first load the answer comes from two concurrent maps (one per key direction)
+ * holding the same {@link Identity}.
+ *
+ * Anything that writes users.username, users.role or deletes a user must call one of the
+ * invalidate methods afterwards. Like {@link DatabaseManager}, there is one database file, so
+ * there is one shared cache.
+ */
+public final class IdentityCache {
+
+    public record Identity(long id, String username, String role) {
+    }
+
+    private static final int MAX_ENTRIES = Integer.getInteger("bank.identityCache.size", 50_000);
+    private static final IdentityCache SHARED = new IdentityCache(new DatabaseManager());
+
+    private final DatabaseManager databaseManager;
+    private final Map<String, Identity> byUsername = new ConcurrentHashMap<>();
+    private final Map<Long, Identity> byId = new ConcurrentHashMap<>();
+    // Bumped on every invalidation; a load that overlaps one is returned but not cached.
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    IdentityCache(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    public static IdentityCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * The identity for a username, or null if no such user exists. Misses are not cached.
+     */
+    public Identity byUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+        Identity identity = byUsername.get(username);
+        if (identity != null) {
+            hits.increment();
+            return identity;
+        }
+        misses.increment();
+        return load("SELECT id, username, role FROM users WHERE username = ?", username);
+    }
+
+    /**
+     * The identity for a user id, or null if no such user exists. Misses are not cached.
+     */
+    public Identity byId(long id) {
+        Identity identity = byId.get(id);
+        if (identity != null) {
+            hits.increment();
+            return identity;
+        }
+        misses.increment();
+        return load("SELECT id, username, role FROM users WHERE id = ?", id);
+    }
+
+    public void invalidate(String username) {
+        generation.incrementAndGet();
+        Identity removed = byUsername.remove(username);
+        if (removed != null) {
+            byId.remove(removed.id());
+        }
+    }
+
+    public void invalidate(long id) {
+        generation.incrementAndGet();
+        Identity removed = byId.remove(id);
+        if (removed != null) {
+            byUsername.remove(removed.username());
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        byUsername.clear();
+        byId.clear();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    private Identity load(String sql, Object key) {
+        long startGeneration = generation.get();
+        Identity identity = null;
+        RepositoryEvent event = RepositoryEvent.start("IdentityCache.load");
+        event.lookupKey = String.valueOf(key);
+        try (Connection connection = databaseManager.getConnection();
+                PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setObject(1, key);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    event.rows = 1;
+                    identity = new Identity(
+                            resultSet.getLong("id"),
+                            resultSet.getString("username"),
+                            resultSet.getString("role"));
+                    event.userId = identity.id();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to look up user " + key, e);
+        } finally {
+            event.commit();
+        }
+
+        if (identity != null && byId.size() >= MAX_ENTRIES) {
+            // Full: start over rather than track recency; the table is rarely this large.
+            clear();
+        } else if (identity != null && generation.get() == startGeneration) {
+            byUsername.put(identity.username(), identity);
+            byId.put(identity.id(), identity);
+            // An invalidation that landed between the check and the puts wins.
+            if (generation.get() != startGeneration) {
+                byUsername.remove(identity.username(), identity);
+                byId.remove(identity.id(), identity);
+            }
+        }
+        return identity;
+    }
+}
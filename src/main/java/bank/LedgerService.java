@@ -0,0 +1,470 @@
+package bank;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Balance changes that must be all-or-nothing: a single posting, a transfer between two
+ * accounts, and a batch of transfers (payroll). Each call runs in one SQLite transaction, so a
+ * debit never commits without its credit or without the transaction rows recording them. The
+ * two rows of a transfer share a transfer_id. The new balance of every account touched goes
+ * to the outbox in the same transaction ({@link Outbox#balanceChanged}).
+ *
+ * Before opening the transaction a call locks every account it touches. Accounts share a
+ * fixed set of bank.ledger.lockStripes locks by hash, taken in ascending stripe order, so two
+ * transfers in opposite directions cannot deadlock. The locks queue postings
+ * to the same account in memory instead of leaving them to retry against SQLite's busy
+ * timeout. The debit itself is a conditional UPDATE, so the overdraft check holds even
+ * against writers outside this class. When the accounts live on different shards the
+ * transaction runs on one connection with all their shard files attached, and SQLite commits
+ * it atomically across them.
+ *
+ * Hot accounts (bank.ledger.hotAccounts, a comma-separated list of account ids) take credits
+ * into one of bank.ledger.hotSlots rows of account_balance_slots, each locked on its own, so
+ * concurrent deposits to a merchant or payroll account do not queue behind one another. An
+ * account's balance is accounts.balance plus its slots ({@link #BALANCE_SQL}); a background
+ * task folds the slots back into accounts.balance every bank.ledger.consolidateMillis.
+ *
+ * Debits from a hot account still take the account lock and check the summed balance in the
+ * same statement that applies them. Credits only ever add to a slot and consolidation moves
+ * money between rows without changing the sum, so nothing that can run concurrently with a
+ * debit can make the balance it reserved against smaller.
+ */
+public class LedgerService {
+    /**
+     * SQL expression for the current balance of the account aliased {@code a}, including credits
+     * not yet consolidated from its slots. Use it wherever a balance is shown.
+     */
+    public static final String BALANCE_SQL = "(a.balance + COALESCE((SELECT SUM(s.balance) " +
+            "FROM account_balance_slots s WHERE s.account_id = a.id), 0))";
+
+    private static final int MAX_BATCH = Integer.getInteger("bank.transfer.maxBatch", 1000);
+    private static final int HOT_SLOTS = Math.max(1, Integer.getInteger("bank.ledger.hotSlots", 8));
+    private static final long CONSOLIDATE_MILLIS = Long.getLong("bank.ledger.consolidateMillis", 1000);
+    private static final int LOCK_STRIPES = Math.max(1, Integer.getInteger("bank.ledger.lockStripes", 1024));
+    // The account's own row; slots are 0..HOT_SLOTS-1.
+    private static final int BASE = -1;
+
+    public record Transfer(long fromAccountId, long toAccountId, double amount, String description) {
+    }
+
+    public record TransferResult(String transferId, long fromAccountId, long toAccountId, double amount,
+            double fromBalance, double toBalance) {
+    }
+
+    @FunctionalInterface
+    private interface Work<T> {
+        T run(Tx tx) throws SQLException;
+    }
+
+    // One transaction's connection. When its accounts live on several shards, main is the
+    // lowest of them and the others are attached (see DatabaseManager#getShardConnection).
+    private record Tx(Connection connection, DatabaseManager databaseManager, int mainShard) {
+        String schema(long accountId) {
+            int shard = databaseManager.shardForAccount(accountId);
+            return shard == mainShard ? "main" : DatabaseManager.shardSchema(shard);
+        }
+    }
+
+    // An account's base row or one of its slots.
+    private record LockKey(long accountId, int slot) {
+        int stripe(int stripes) {
+            // Spread sequential ids and neighbouring slots over the stripes.
+            long mixed = (accountId * 31 + slot) * 0x9E3779B97F4A7C15L;
+            return Math.floorMod(Long.hashCode(mixed), stripes);
+        }
+    }
+
+    private final DatabaseManager databaseManager;
+    private final Set<Long> hotAccounts;
+    // Shared by all accounts and slots, so memory does not grow with the accounts posted to.
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    private final LongAdder slotCredits = new LongAdder();
+    private final LongAdder consolidations = new LongAdder();
+
+    public LedgerService(DatabaseManager databaseManager) {
+        this(databaseManager, parseIds(System.getProperty("bank.ledger.hotAccounts", "")));
+    }
+
+    public LedgerService(DatabaseManager databaseManager, Set<Long> hotAccounts) {
+        this.databaseManager = databaseManager;
+        this.hotAccounts = Set.copyOf(hotAccounts);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Consolidates any slots left over from a previous run and starts the periodic
+     * consolidation. Without this, hot-account credits stay in their slots (reads still see
+     * them).
+     */
+    public void startConsolidation() {
+        consolidate();
+        ScheduledExecutorService consolidator = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ledger-consolidator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        consolidator.scheduleWithFixedDelay(() -> {
+            try {
+                consolidate();
+            } catch (RuntimeException e) {
+                System.err.println("Error consolidating balance slots: " + e.getMessage());
+            }
+        }, CONSOLIDATE_MILLIS, CONSOLIDATE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Applies a credit or debit and records it. Returns the new balance.
+     *
+     * @throws IllegalStateException    if a debit exceeds the balance
+     * @throws IllegalArgumentException if the account does not exist or the type is unknown
+     */
+    public double post(long accountId, Transaction transaction) {
+        requirePositive(transaction.getAmount());
+        boolean credit = switch (transaction.getType()) {
+            case "credit" -> true;
+            case "debit" -> false;
+            default -> throw new IllegalArgumentException("Unknown transaction type " + transaction.getType());
+        };
+        LockKey key = credit ? creditKey(accountId, new HashMap<>()) : new LockKey(accountId, BASE);
+        RepositoryEvent event = RepositoryEvent.start("LedgerService.post");
+        event.accountId = accountId;
+        try {
+            return inTransaction(List.of(key), tx -> {
+                if (credit) {
+                    credit(tx, key, transaction.getAmount());
+                } else {
+                    debit(tx, accountId, transaction.getAmount());
+                }
+                insertRow(tx, accountId, transaction.getAmount(), transaction.getType(),
+                        transaction.getDescription(), transaction.getTimestamp(), null);
+                Outbox.balanceChanged(tx.connection(), tx.schema(accountId), accountId,
+                        credit ? transaction.getAmount() : -transaction.getAmount());
+                event.rows = 3;
+                return balance(tx, accountId);
+            });
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Moves money between two accounts in one transaction.
+     */
+    public TransferResult transfer(Transfer transfer) {
+        return transferAll(List.of(transfer)).get(0);
+    }
+
+    /**
+     * Applies every transfer or none of them. Meant for fan-out such as payroll, where one
+     * account pays many; the source is debited once per item, so it must cover the total.
+     */
+    public List<TransferResult> transferAll(List<Transfer> transfers) {
+        if (transfers.isEmpty()) {
+            throw new IllegalArgumentException("No transfers given");
+        }
+        if (transfers.size() > MAX_BATCH) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH + " transfers per batch");
+        }
+        // One slot per hot account for the whole call.
+        Map<Long, Integer> slots = new HashMap<>();
+        List<LockKey> keys = new ArrayList<>();
+        for (Transfer transfer : transfers) {
+            requirePositive(transfer.amount());
+            if (transfer.fromAccountId() == transfer.toAccountId()) {
+                throw new IllegalArgumentException("Cannot transfer from an account to itself");
+            }
+            keys.add(new LockKey(transfer.fromAccountId(), BASE));
+            keys.add(creditKey(transfer.toAccountId(), slots));
+        }
+
+        RepositoryEvent event = RepositoryEvent.start("LedgerService.transferAll");
+        event.accountId = transfers.get(0).fromAccountId();
+        try {
+            return inTransaction(keys, tx -> {
+                LocalDateTime now = LocalDateTime.now();
+                List<String> transferIds = new ArrayList<>(transfers.size());
+                for (int i = 0; i < transfers.size(); i++) {
+                    Transfer transfer = transfers.get(i);
+                    String transferId = "TRF-" + UUID.randomUUID();
+                    try {
+                        debit(tx, transfer.fromAccountId(), transfer.amount());
+                        credit(tx, creditKey(transfer.toAccountId(), slots), transfer.amount());
+                    } catch (IllegalStateException e) {
+                        throw transfers.size() == 1 ? e
+                                : new IllegalStateException("Transfer " + (i + 1) + ": " + e.getMessage(), e);
+                    } catch (IllegalArgumentException e) {
+                        throw transfers.size() == 1 ? e
+                                : new IllegalArgumentException("Transfer " + (i + 1) + ": " + e.getMessage(), e);
+                    }
+                    insertRow(tx, transfer.fromAccountId(), transfer.amount(), "debit",
+                            describe(transfer, "Transfer to account " + transfer.toAccountId()), now, transferId);
+                    insertRow(tx, transfer.toAccountId(), transfer.amount(), "credit",
+                            describe(transfer, "Transfer from account " + transfer.fromAccountId()), now, transferId);
+                    transferIds.add(transferId);
+                }
+                // Balances after the whole batch, read and recorded once per account.
+                Map<Long, Double> changes = new HashMap<>();
+                for (Transfer transfer : transfers) {
+                    changes.merge(transfer.fromAccountId(), -transfer.amount(), Double::sum);
+                    changes.merge(transfer.toAccountId(), transfer.amount(), Double::sum);
+                }
+                Map<Long, Double> balances = new HashMap<>();
+                for (LockKey key : keys) {
+                    if (!balances.containsKey(key.accountId())) {
+                        balances.put(key.accountId(), balance(tx, key.accountId()));
+                        Outbox.balanceChanged(tx.connection(), tx.schema(key.accountId()), key.accountId(),
+                                changes.get(key.accountId()));
+                    }
+                }
+                event.rows = transfers.size() * 4 + balances.size();
+                List<TransferResult> results = new ArrayList<>(transfers.size());
+                for (int i = 0; i < transfers.size(); i++) {
+                    Transfer transfer = transfers.get(i);
+                    results.add(new TransferResult(transferIds.get(i), transfer.fromAccountId(),
+                            transfer.toAccountId(), transfer.amount(),
+                            balances.get(transfer.fromAccountId()), balances.get(transfer.toAccountId())));
+                }
+                return results;
+            });
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Folds every account's slots into accounts.balance. Each account is moved in its own
+     * transaction; the sum that reads see does not change.
+     */
+    public void consolidate() {
+        List<Long> accountIds = new ArrayList<>();
+        try {
+            for (List<Long> shardIds : databaseManager.forEachShard(connection -> {
+                List<Long> ids = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "SELECT DISTINCT account_id FROM account_balance_slots WHERE balance <> 0");
+                        ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getLong("account_id"));
+                    }
+                }
+                return ids;
+            })) {
+                accountIds.addAll(shardIds);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to list balance slots", e);
+        }
+
+        for (long accountId : accountIds) {
+            RepositoryEvent event = RepositoryEvent.start("LedgerService.consolidate");
+            event.accountId = accountId;
+            try {
+                // The base lock keeps a debit's check and this move from interleaving in memory;
+                // in the database both run as single write transactions anyway.
+                inTransaction(List.of(new LockKey(accountId, BASE)), tx -> {
+                    String schema = tx.schema(accountId);
+                    try (PreparedStatement fold = tx.connection().prepareStatement(
+                            "UPDATE " + schema + ".accounts SET balance = balance + COALESCE((SELECT SUM(balance) " +
+                                    "FROM " + schema + ".account_balance_slots WHERE account_id = ?), 0) WHERE id = ?");
+                            PreparedStatement clear = tx.connection().prepareStatement(
+                                    "DELETE FROM " + schema + ".account_balance_slots WHERE account_id = ?")) {
+                        fold.setLong(1, accountId);
+                        fold.setLong(2, accountId);
+                        fold.executeUpdate();
+                        clear.setLong(1, accountId);
+                        event.rows = clear.executeUpdate();
+                    }
+                    return null;
+                });
+                consolidations.increment();
+            } finally {
+                event.commit();
+            }
+        }
+    }
+
+    public boolean isHot(long accountId) {
+        return hotAccounts.contains(accountId);
+    }
+
+    /**
+     * Credits that went to a slot instead of the account row.
+     */
+    public long getSlotCreditCount() {
+        return slotCredits.sum();
+    }
+
+    public long getConsolidationCount() {
+        return consolidations.sum();
+    }
+
+    private LockKey creditKey(long accountId, Map<Long, Integer> slots) {
+        if (!hotAccounts.contains(accountId)) {
+            return new LockKey(accountId, BASE);
+        }
+        int slot = slots.computeIfAbsent(accountId, id -> ThreadLocalRandom.current().nextInt(HOT_SLOTS));
+        return new LockKey(accountId, slot);
+    }
+
+    private <T> T inTransaction(Collection<LockKey> keys, Work<T> work) {
+        TreeSet<Integer> shards = new TreeSet<>();
+        for (LockKey key : keys) {
+            shards.add(databaseManager.shardForAccount(key.accountId()));
+        }
+        List<ReentrantLock> held = lockInOrder(keys);
+        try (Connection connection = databaseManager.getShardConnection(shards)) {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(new Tx(connection, databaseManager, shards.first()));
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to post to accounts " + keys.stream()
+                    .map(LockKey::accountId).collect(Collectors.toCollection(TreeSet::new)), e);
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+    }
+
+    // Keys that share a stripe take it once.
+    private List<ReentrantLock> lockInOrder(Collection<LockKey> keys) {
+        TreeSet<Integer> ordered = new TreeSet<>();
+        for (LockKey key : keys) {
+            ordered.add(key.stripe(stripes.length));
+        }
+        List<ReentrantLock> held = new ArrayList<>(ordered.size());
+        for (int stripe : ordered) {
+            ReentrantLock lock = stripes[stripe];
+            lock.lock();
+            held.add(lock);
+        }
+        return held;
+    }
+
+    // The first statement of every transaction is a write, so SQLite takes the write lock up
+    // front rather than upgrading a read lock (which can fail with SQLITE_BUSY).
+    private static void debit(Tx tx, long accountId, double amount) throws SQLException {
+        String schema = tx.schema(accountId);
+        try (PreparedStatement statement = tx.connection().prepareStatement(
+                "UPDATE " + schema + ".accounts AS a SET balance = balance - ? WHERE id = ? AND "
+                        + balanceSql(schema) + " >= ?")) {
+            statement.setDouble(1, amount);
+            statement.setLong(2, accountId);
+            statement.setDouble(3, amount);
+            if (statement.executeUpdate() == 1) {
+                return;
+            }
+        }
+        double currentBalance = balance(tx, accountId);
+        throw new IllegalStateException("Insufficient funds. Current balance: $" +
+                String.format("%.2f", currentBalance) + ", Required: $" +
+                String.format("%.2f", amount));
+    }
+
+    private void credit(Tx tx, LockKey key, double amount) throws SQLException {
+        String schema = tx.schema(key.accountId());
+        if (key.slot() == BASE) {
+            try (PreparedStatement statement = tx.connection().prepareStatement(
+                    "UPDATE " + schema + ".accounts SET balance = balance + ? WHERE id = ?")) {
+                statement.setDouble(1, amount);
+                statement.setLong(2, key.accountId());
+                if (statement.executeUpdate() == 0) {
+                    throw new IllegalArgumentException("Account " + key.accountId() + " does not exist");
+                }
+            }
+            return;
+        }
+        try (PreparedStatement statement = tx.connection().prepareStatement(
+                "INSERT INTO " + schema + ".account_balance_slots (account_id, slot, balance) VALUES (?, ?, ?) " +
+                        "ON CONFLICT(account_id, slot) DO UPDATE SET balance = balance + excluded.balance")) {
+            statement.setLong(1, key.accountId());
+            statement.setInt(2, key.slot());
+            statement.setDouble(3, amount);
+            statement.executeUpdate();
+        }
+        // Checked after the write (see above); a missing account rolls the slot back.
+        balance(tx, key.accountId());
+        slotCredits.increment();
+    }
+
+    private static double balance(Tx tx, long accountId) throws SQLException {
+        String schema = tx.schema(accountId);
+        try (PreparedStatement statement = tx.connection().prepareStatement(
+                "SELECT " + balanceSql(schema) + " AS balance FROM " + schema + ".accounts a WHERE a.id = ?")) {
+            statement.setLong(1, accountId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new IllegalArgumentException("Account " + accountId + " does not exist");
+                }
+                return resultSet.getDouble("balance");
+            }
+        }
+    }
+
+    private static void insertRow(Tx tx, long accountId, double amount, String type,
+            String description, LocalDateTime timestamp, String transferId) throws SQLException {
+        try (PreparedStatement statement = tx.connection().prepareStatement(
+                "INSERT INTO " + tx.schema(accountId) + ".transactions " +
+                        "(account_id, amount, type, description, created_at, transfer_id) VALUES (?, ?, ?, ?, ?, ?)")) {
+            statement.setLong(1, accountId);
+            statement.setDouble(2, amount);
+            statement.setString(3, type);
+            statement.setString(4, description);
+            statement.setString(5, timestamp.toString());
+            statement.setString(6, transferId);
+            statement.executeUpdate();
+        }
+    }
+
+    // BALANCE_SQL against the tables of the given schema.
+    private static String balanceSql(String schema) {
+        return "(a.balance + COALESCE((SELECT SUM(s.balance) FROM " + schema + ".account_balance_slots s "
+                + "WHERE s.account_id = a.id), 0))";
+    }
+
+    private static String describe(Transfer transfer, String fallback) {
+        return transfer.description() == null || transfer.description().isBlank() ? fallback : transfer.description();
+    }
+
+    private static void requirePositive(double amount) {
+        if (!(amount > 0) || Double.isInfinite(amount)) {
+            throw new IllegalArgumentException("Amount must be a positive number");
+        }
+    }
+
+    private static Set<Long> parseIds(String ids) {
+        return Arrays.stream(ids.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .map(Long::valueOf)
+                .collect(Collectors.toSet());
+    }
+}
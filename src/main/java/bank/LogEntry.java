@@ -0,0 +1,73 @@
+package bank;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * One audit entry as written by {@link Logs}. The text form is the historical line format:
+ *   yyyy-MM-dd HH:mm:ss; Actor: <actor>; Action: <action>; Target: <target>; Details: <details>
+ */
+record LogEntry(LocalDateTime timestamp, String actor, String action, String target, String details) {
+    static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final String ACTOR = "; Actor: ";
+    private static final String ACTION = "; Action: ";
+    private static final String TARGET = "; Target: ";
+    private static final String DETAILS = "; Details: ";
+
+    String toLine() {
+        return String.format(
+            "%s; Actor: %s; Action: %s; Target: %s; Details: %s",
+            timestamp.format(TIMESTAMP_FORMAT), actor, action, target, details
+        );
+    }
+
+    /**
+     * Timestamps are wall-clock local times, so they are compared as if they were UTC; the
+     * zone only has to be consistent, not correct.
+     */
+    long epochSecond() {
+        return timestamp.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    static long epochSecond(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Null criteria match anything; the time range is inclusive.
+     */
+    boolean matches(String actor, String action, long fromEpoch, long toEpoch) {
+        long epoch = epochSecond();
+        return (actor == null || actor.equals(this.actor))
+                && (action == null || action.equals(this.action))
+                && epoch >= fromEpoch && epoch <= toEpoch;
+    }
+
+    /**
+     * Parses a line produced by {@link #toLine()}. Returns null for anything else so callers
+     * can skip hand-edited or truncated lines.
+     */
+    static LogEntry parse(String line) {
+        int actorAt = line.indexOf(ACTOR);
+        int actionAt = actorAt < 0 ? -1 : line.indexOf(ACTION, actorAt);
+        int targetAt = actionAt < 0 ? -1 : line.indexOf(TARGET, actionAt);
+        int detailsAt = targetAt < 0 ? -1 : line.indexOf(DETAILS, targetAt);
+        if (detailsAt < 0) {
+            return null;
+        }
+        try {
+            return new LogEntry(
+                LocalDateTime.parse(line.substring(0, actorAt), TIMESTAMP_FORMAT),
+                line.substring(actorAt + ACTOR.length(), actionAt),
+                line.substring(actionAt + ACTION.length(), targetAt),
+                line.substring(targetAt + TARGET.length(), detailsAt),
+                line.substring(detailsAt + DETAILS.length())
+            );
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
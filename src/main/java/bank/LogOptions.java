@@ -0,0 +1,142 @@
+package bank;
+
+import lombok.Getter;
+
+/**
+ * Settings for {@link Logs}. The defaults keep the original behaviour: every append
+ * opens the file, writes one line and closes it again on the caller's thread.
+ */
+@Getter
+public final class LogOptions {
+
+    /**
+     * What the background writer does after handing a batch to the file channel.
+     */
+    public enum FlushPolicy {
+        // Leave durability to the OS page cache.
+        WRITE,
+        // fsync after every batch; safest, slowest.
+        FSYNC_EACH_BATCH,
+        // fsync at most once per fsyncIntervalMillis.
+        FSYNC_PERIODIC
+    }
+
+    /**
+     * On-disk encoding of entries.
+     */
+    public enum Format {
+        // Human-readable lines (the historical format).
+        TEXT,
+        // Compact dictionary-encoded records; see BinaryLogReader.
+        BINARY
+    }
+
+    /**
+     * What append does when the async queue is full.
+     */
+    public enum Backpressure {
+        // Caller waits until the writer frees a slot.
+        BLOCK,
+        // Entry is discarded and counted (see Logs.getDroppedCount()).
+        DROP
+    }
+
+    private boolean async;
+    private int queueCapacity = 8192;
+    private int maxBatchSize = 256;
+    private FlushPolicy flushPolicy = FlushPolicy.WRITE;
+    private long fsyncIntervalMillis = 1000;
+    private Backpressure backpressure = Backpressure.BLOCK;
+    private Format format = Format.TEXT;
+    // 0 disables the corresponding rolling trigger; segmenting is on if either is set.
+    private long segmentMaxBytes;
+    private long segmentMaxAgeMillis;
+
+    private LogOptions() {
+    }
+
+    public static LogOptions sync() {
+        return new LogOptions();
+    }
+
+    /**
+     * Entries are queued and written in batches by a single background thread.
+     */
+    public static LogOptions async() {
+        LogOptions options = new LogOptions();
+        options.async = true;
+        return options;
+    }
+
+    public LogOptions queueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive.");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public LogOptions maxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public LogOptions flushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+        return this;
+    }
+
+    public LogOptions fsyncIntervalMillis(long fsyncIntervalMillis) {
+        if (fsyncIntervalMillis < 1) {
+            throw new IllegalArgumentException("fsync interval must be positive.");
+        }
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        return this;
+    }
+
+    public LogOptions backpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
+        return this;
+    }
+
+    /**
+     * Binary logs cannot be segmented; Logs rejects that combination.
+     */
+    public LogOptions format(Format format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Roll the active file once it would grow past this many bytes.
+     */
+    public LogOptions segmentMaxBytes(long segmentMaxBytes) {
+        if (segmentMaxBytes < 0) {
+            throw new IllegalArgumentException("Segment size cannot be negative.");
+        }
+        this.segmentMaxBytes = segmentMaxBytes;
+        return this;
+    }
+
+    /**
+     * Roll the active file on the first write after it has been open this long.
+     */
+    public LogOptions segmentMaxAgeMillis(long segmentMaxAgeMillis) {
+        if (segmentMaxAgeMillis < 0) {
+            throw new IllegalArgumentException("Segment age cannot be negative.");
+        }
+        this.segmentMaxAgeMillis = segmentMaxAgeMillis;
+        return this;
+    }
+
+    /**
+     * Segmented logs roll into numbered files and keep an offset index per segment
+     * (see LogSegments), so per-actor and time-range queries avoid full scans.
+     */
+    public boolean isSegmented() {
+        return segmentMaxBytes > 0 || segmentMaxAgeMillis > 0;
+    }
+}
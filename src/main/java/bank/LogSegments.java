@@ -0,0 +1,574 @@
+package bank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Rolling storage behind {@link Logs} when segmenting is enabled.
+ *
+ * The active segment is always the configured file (e.g. bank-log.txt). Once it passes the size
+ * or age limit it is renamed to bank-log.txt.000001, .000002, ... and a binary sidecar
+ * (bank-log.txt.000001.idx) is written next to it. The sidecar holds the segment's min/max
+ * timestamp, actor and action dictionaries, and one fixed-size record per line (byte offset,
+ * length, epoch second, actor id, action id). Queries skip segments by time range or by a
+ * missing dictionary entry, walk the requested actor's or action's posting list (rebuilt in
+ * memory from the records) and then read only the matching lines with positional reads.
+ *
+ * The active segment's index is kept in memory and rebuilt with one scan on startup. Sealed
+ * indexes are loaded on demand and held through soft references.
+ */
+final class LogSegments implements Closeable {
+    private static final int INDEX_MAGIC = 0x424C4958; // "BLIX"
+    private static final int INDEX_VERSION = 1;
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final Path activePath;
+    private final String baseName;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final Pattern sealedName;
+    private final List<Sealed> sealed = new ArrayList<>();
+
+    // Writes and rolls take this object's monitor. Queries hold it only to copy the sealed list,
+    // select lines from the active index and open the active file; the reads happen afterwards,
+    // and the open channel keeps reading the same file if a roll renames it meanwhile.
+    private SegmentIndex active;
+    private long activeBytes;
+    private long activeSince;
+    private int nextSequence = 1;
+    private FileChannel channel;
+
+    LogSegments(Path activePath, long maxBytes, long maxAgeMillis) throws IOException {
+        this.activePath = activePath.toAbsolutePath();
+        this.baseName = this.activePath.getFileName().toString();
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.sealedName = Pattern.compile(Pattern.quote(baseName) + "\\.(\\d{6,})");
+        loadSealedSegments();
+
+        if (Files.exists(this.activePath)) {
+            active = SegmentIndex.scan(this.activePath);
+            activeBytes = Files.size(this.activePath);
+        } else {
+            active = new SegmentIndex();
+        }
+        activeSince = active.size() > 0
+                ? LocalDateTime.ofEpochSecond(active.minEpoch, 0, ZoneOffset.UTC)
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : 0;
+    }
+
+    /**
+     * Appends the batch, rolling at line boundaries so a large batch is spread over segments
+     * instead of overshooting the size limit.
+     */
+    synchronized void append(List<LogEntry> batch) throws IOException {
+        byte[][] lines = new byte[batch.size()][];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = (batch.get(i).toLine() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        }
+
+        int start = 0;
+        while (start < lines.length) {
+            if (shouldRoll(lines[start].length)) {
+                roll();
+            }
+            int end = start;
+            int chunkBytes = 0;
+            while (end < lines.length && (end == start || fits(chunkBytes + lines[end].length))) {
+                chunkBytes += lines[end].length;
+                end++;
+            }
+            writeChunk(batch, lines, start, end, chunkBytes);
+            start = end;
+        }
+    }
+
+    private void writeChunk(List<LogEntry> batch, byte[][] lines, int start, int end, int chunkBytes)
+            throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(activePath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            activeBytes = channel.size();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(chunkBytes);
+        for (int i = start; i < end; i++) {
+            buffer.put(lines[i]);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        if (activeBytes == 0) {
+            activeSince = System.currentTimeMillis();
+        }
+        long offset = activeBytes;
+        for (int i = start; i < end; i++) {
+            active.add(offset, lines[i].length, batch.get(i));
+            offset += lines[i].length;
+        }
+        activeBytes = offset;
+    }
+
+    synchronized void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Closes the channel; the next append reopens it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            FileChannel toClose = channel;
+            channel = null;
+            toClose.close();
+        }
+    }
+
+    /**
+     * Lines matching every non-null criterion, oldest segment first.
+     */
+    List<String> find(String actor, String action, long fromEpoch, long toEpoch) throws IOException {
+        List<Sealed> sealedSnapshot;
+        Selection activeSelection;
+        FileChannel activeReader = null;
+        synchronized (this) {
+            sealedSnapshot = List.copyOf(sealed);
+            activeSelection = active.select(actor, action, fromEpoch, toEpoch);
+            if (activeSelection.count > 0) {
+                activeReader = FileChannel.open(activePath, StandardOpenOption.READ);
+            }
+        }
+
+        List<String> matches = new ArrayList<>();
+        try {
+            for (Sealed segment : sealedSnapshot) {
+                if (segment.maxEpoch < fromEpoch || segment.minEpoch > toEpoch) {
+                    continue;
+                }
+                Selection selection = segment.index().select(actor, action, fromEpoch, toEpoch);
+                if (selection.count > 0) {
+                    try (FileChannel reader = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                        readLines(reader, selection, matches);
+                    }
+                }
+            }
+            if (activeReader != null) {
+                readLines(activeReader, activeSelection, matches);
+            }
+        } finally {
+            if (activeReader != null) {
+                activeReader.close();
+            }
+        }
+        return matches;
+    }
+
+    synchronized void forEachLine(Consumer<String> consumer) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for (Sealed segment : sealed) {
+            paths.add(segment.path);
+        }
+        paths.add(activePath);
+        for (Path path : paths) {
+            if (!Files.exists(path)) {
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    consumer.accept(line);
+                }
+            }
+        }
+    }
+
+    synchronized int segmentCount() {
+        return sealed.size() + 1;
+    }
+
+    private boolean shouldRoll(int incomingBytes) {
+        if (activeBytes == 0) {
+            return false;
+        }
+        return !fits(incomingBytes)
+                || (maxAgeMillis > 0 && System.currentTimeMillis() - activeSince >= maxAgeMillis);
+    }
+
+    private boolean fits(int incomingBytes) {
+        return maxBytes <= 0 || activeBytes + incomingBytes <= maxBytes;
+    }
+
+    private void roll() throws IOException {
+        close();
+        Path target = activePath.resolveSibling(String.format("%s.%06d", baseName, nextSequence++));
+        Files.move(activePath, target);
+        active.write(indexPath(target));
+        sealed.add(new Sealed(target, active));
+        active = new SegmentIndex();
+        activeBytes = 0;
+    }
+
+    private void loadSealedSegments() throws IOException {
+        Path dir = activePath.getParent();
+        List<Path> found = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> sealedName.matcher(p.getFileName().toString()).matches()).forEach(found::add);
+        }
+        found.sort(Comparator.comparingInt(this::sequenceOf));
+        for (Path path : found) {
+            sealed.add(Sealed.open(path));
+            nextSequence = sequenceOf(path) + 1;
+        }
+    }
+
+    private int sequenceOf(Path path) {
+        Matcher matcher = sealedName.matcher(path.getFileName().toString());
+        matcher.matches();
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private static Path indexPath(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + INDEX_SUFFIX);
+    }
+
+    private static void readLines(FileChannel reader, Selection selection, List<String> out) throws IOException {
+        for (int i = 0; i < selection.count; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(selection.lengths[i]);
+            long position = selection.offsets[i];
+            while (buffer.hasRemaining()) {
+                int read = reader.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+            }
+            out.add(stripLineEnd(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static String stripLineEnd(String line) {
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    /**
+     * A renamed, read-only segment. Only the time range is kept permanently; the full index
+     * is reloaded from the sidecar when memory gets tight.
+     */
+    private static final class Sealed {
+        private final Path path;
+        private final long minEpoch;
+        private final long maxEpoch;
+        // Queries load the index without the segments' monitor; racing loads just read the
+        // sidecar twice.
+        private volatile SoftReference<SegmentIndex> cached;
+
+        private Sealed(Path path, SegmentIndex index) {
+            this.path = path;
+            this.minEpoch = index.minEpoch;
+            this.maxEpoch = index.maxEpoch;
+            this.cached = new SoftReference<>(index);
+        }
+
+        static Sealed open(Path path) throws IOException {
+            Path indexPath = indexPath(path);
+            SegmentIndex index = null;
+            if (Files.exists(indexPath)) {
+                try {
+                    index = SegmentIndex.read(indexPath);
+                } catch (IOException e) {
+                    System.err.println("Rebuilding unreadable log index " + indexPath + ": " + e.getMessage());
+                }
+            }
+            if (index == null) {
+                index = SegmentIndex.scan(path);
+                index.write(indexPath);
+            }
+            return new Sealed(path, index);
+        }
+
+        SegmentIndex index() throws IOException {
+            SegmentIndex index = cached.get();
+            if (index == null) {
+                index = SegmentIndex.read(indexPath(path));
+                cached = new SoftReference<>(index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Line positions picked out of one index, in file order.
+     */
+    private static final class Selection {
+        private static final Selection NONE = new Selection(0);
+
+        private long[] offsets;
+        private int[] lengths;
+        private int count;
+
+        private Selection(int capacity) {
+            offsets = new long[capacity];
+            lengths = new int[capacity];
+        }
+
+        void add(long offset, int length) {
+            if (count == offsets.length) {
+                int capacity = Math.max(16, count * 2);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            offsets[count] = offset;
+            lengths[count] = length;
+            count++;
+        }
+    }
+
+    /**
+     * Ascending record numbers for one actor or action.
+     */
+    private static final class Postings {
+        private int[] records = new int[8];
+        private int count;
+
+        void add(int record) {
+            if (count == records.length) {
+                records = Arrays.copyOf(records, count * 2);
+            }
+            records[count++] = record;
+        }
+    }
+
+    /**
+     * Column-oriented index of one segment. Actor and action strings are dictionary-encoded
+     * so each line costs 28 bytes regardless of how long the names are. The posting lists
+     * are not stored in the sidecar; {@link #add} rebuilds them as records are loaded.
+     */
+    static final class SegmentIndex {
+        private final List<String> actors = new ArrayList<>();
+        private final Map<String, Integer> actorIds = new HashMap<>();
+        private final List<Postings> actorPostings = new ArrayList<>();
+        private final List<String> actions = new ArrayList<>();
+        private final Map<String, Integer> actionIds = new HashMap<>();
+        private final List<Postings> actionPostings = new ArrayList<>();
+        private long[] offsets = new long[64];
+        private int[] lengths = new int[64];
+        private long[] epochs = new long[64];
+        private int[] actorOf = new int[64];
+        private int[] actionOf = new int[64];
+        private int size;
+        private long minEpoch = Long.MAX_VALUE;
+        private long maxEpoch = Long.MIN_VALUE;
+
+        int size() {
+            return size;
+        }
+
+        void add(long offset, int length, LogEntry entry) {
+            add(offset, length, entry.epochSecond(),
+                    intern(String.valueOf(entry.actor()), actors, actorIds),
+                    intern(String.valueOf(entry.action()), actions, actionIds));
+        }
+
+        private void add(long offset, int length, long epoch, int actorId, int actionId) {
+            if (size == offsets.length) {
+                int capacity = size * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                epochs = Arrays.copyOf(epochs, capacity);
+                actorOf = Arrays.copyOf(actorOf, capacity);
+                actionOf = Arrays.copyOf(actionOf, capacity);
+            }
+            offsets[size] = offset;
+            lengths[size] = length;
+            epochs[size] = epoch;
+            actorOf[size] = actorId;
+            actionOf[size] = actionId;
+            postings(actorPostings, actorId).add(size);
+            postings(actionPostings, actionId).add(size);
+            size++;
+            minEpoch = Math.min(minEpoch, epoch);
+            maxEpoch = Math.max(maxEpoch, epoch);
+        }
+
+        private static Postings postings(List<Postings> byId, int id) {
+            while (byId.size() <= id) {
+                byId.add(new Postings());
+            }
+            return byId.get(id);
+        }
+
+        /**
+         * Records matching every non-null criterion. Walks the shorter posting list when an
+         * actor or action is given and checks the other criteria per record, so the cost
+         * follows the number of candidates rather than the segment size.
+         */
+        Selection select(String actor, String action, long fromEpoch, long toEpoch) {
+            if (size == 0 || minEpoch > toEpoch || maxEpoch < fromEpoch) {
+                return Selection.NONE;
+            }
+            int actorId = actor == null ? -1 : actorIds.getOrDefault(actor, -2);
+            int actionId = action == null ? -1 : actionIds.getOrDefault(action, -2);
+            if (actorId == -2 || actionId == -2) {
+                return Selection.NONE;
+            }
+
+            Postings driver = null;
+            if (actorId >= 0) {
+                driver = actorPostings.get(actorId);
+            }
+            if (actionId >= 0 && (driver == null || actionPostings.get(actionId).count < driver.count)) {
+                driver = actionPostings.get(actionId);
+            }
+            int candidates = driver == null ? size : driver.count;
+
+            Selection selection = new Selection(Math.min(candidates, 64));
+            for (int k = 0; k < candidates; k++) {
+                int i = driver == null ? k : driver.records[k];
+                if ((actorId >= 0 && actorOf[i] != actorId)
+                        || (actionId >= 0 && actionOf[i] != actionId)
+                        || epochs[i] < fromEpoch || epochs[i] > toEpoch) {
+                    continue;
+                }
+                selection.add(offsets[i], lengths[i]);
+            }
+            return selection;
+        }
+
+        private static int intern(String value, List<String> values, Map<String, Integer> ids) {
+            return ids.computeIfAbsent(value, v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+
+        /**
+         * Builds the index from the segment text. Used for the active segment on startup and
+         * for sealed segments whose sidecar is missing or damaged. Unparseable lines are left
+         * out of the index but stay in the file.
+         */
+        static SegmentIndex scan(Path segment) throws IOException {
+            SegmentIndex index = new SegmentIndex();
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(segment))) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+                long offset = 0;
+                int b;
+                while ((b = in.read()) != -1) {
+                    line.write(b);
+                    if (b == '\n') {
+                        offset = indexLine(index, line, offset);
+                    }
+                }
+                if (line.size() > 0) {
+                    indexLine(index, line, offset);
+                }
+            }
+            return index;
+        }
+
+        private static long indexLine(SegmentIndex index, ByteArrayOutputStream line, long offset) {
+            int length = line.size();
+            LogEntry entry = LogEntry.parse(stripLineEnd(line.toString(StandardCharsets.UTF_8)));
+            if (entry != null) {
+                index.add(offset, length, entry);
+            }
+            line.reset();
+            return offset + length;
+        }
+
+        void write(Path indexPath) throws IOException {
+            Path temp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeLong(minEpoch);
+                out.writeLong(maxEpoch);
+                writeDictionary(out, actors);
+                writeDictionary(out, actions);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                    out.writeLong(epochs[i]);
+                    out.writeInt(actorOf[i]);
+                    out.writeInt(actionOf[i]);
+                }
+            }
+            Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        static SegmentIndex read(Path indexPath) throws IOException {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(indexPath)))) {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                    throw new IOException("Not a log index: " + indexPath);
+                }
+                in.readLong(); // min/max are recomputed as records are added
+                in.readLong();
+                SegmentIndex index = new SegmentIndex();
+                readDictionary(in, index.actors, index.actorIds);
+                readDictionary(in, index.actions, index.actionIds);
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    index.add(in.readLong(), in.readInt(), in.readLong(), in.readInt(), in.readInt());
+                }
+                return index;
+            }
+        }
+
+        private static void writeDictionary(DataOutputStream out, List<String> values) throws IOException {
+            out.writeInt(values.size());
+            for (String value : values) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static void readDictionary(DataInputStream in, List<String> values, Map<String, Integer> ids)
+                throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String value = in.readUTF();
+                values.add(value);
+                ids.put(value, i);
+            }
+        }
+    }
+}
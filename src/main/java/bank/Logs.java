@@ -6,32 +6,105 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
-public class Logs {
+public class Logs implements AutoCloseable {
     private final String textFile;
-    private static final DateTimeFormatter TIMESTAMP_FORMAT =
-            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // How long the writer waits for new entries before checking close/fsync deadlines.
+    private static final long IDLE_POLL_MILLIS = 200;
+
+    private final LogOptions options;
+    // At most one of these is non-null; it then owns the file instead of `channel`.
+    private final LogSegments segments;
+    private final BinaryLogWriter binary;
+
+    // Async mode only (null otherwise): a bounded ring buffer between callers and the
+    // single writer thread, which owns the long-lived file channel.
+    private final BlockingQueue<LogEntry> queue;
+    private final Thread writer;
+    private FileChannel channel;
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ReentrantLock progressLock = new ReentrantLock();
+    private final Condition progressed = progressLock.newCondition();
+    private long written; // guarded by progressLock
+    private volatile IOException writeFailure;
+    private volatile boolean closed;
+    // Appends hold the read side from their closed check until the entry is queued; close()
+    // takes the write side to set closed, so no entry is queued after the writer drains.
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
 
     public Logs(String textFile) {
+        this(textFile, LogOptions.sync());
+    }
+
+    public Logs(String textFile, LogOptions options) {
         this.textFile = textFile;
+        this.options = options;
+        boolean binaryFormat = options.getFormat() == LogOptions.Format.BINARY;
+        if (binaryFormat && options.isSegmented()) {
+            throw new IllegalArgumentException("Segmented logs only support the text format.");
+        }
+        try {
+            this.segments = options.isSegmented()
+                    ? new LogSegments(Path.of(textFile), options.getSegmentMaxBytes(), options.getSegmentMaxAgeMillis())
+                    : null;
+            this.binary = binaryFormat ? new BinaryLogWriter(Path.of(textFile)) : null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open log file: " + textFile, e);
+        }
+        if (options.isAsync()) {
+            this.queue = new ArrayBlockingQueue<>(options.getQueueCapacity());
+            this.writer = new Thread(this::drainLoop, "logs-writer-" + Path.of(textFile).getFileName());
+            this.writer.setDaemon(true);
+            this.writer.start();
+        } else {
+            this.queue = null;
+            this.writer = null;
+        }
     }
 
     /**
      * Appends a single log entry to the file, with timestamp and metadata.
      * Format:
      *   yyyy-MM-dd HH:mm:ss; Actor: <actor>; Action: <action>; Target <target>; Details: <details>;
+     *
+     * In async mode the entry is only queued here; see {@link #flush()}.
      */
     public void append(String actor, String action, String target, String details) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        String line = String.format(
-            "%s; Actor: %s; Action: %s; Target: %s; Details: %s",
-            timestamp, actor, action, target, details
-        );
+        LogEntry entry = new LogEntry(LocalDateTime.now(), actor, action, target, details);
+        if (queue != null) {
+            enqueue(entry);
+            return;
+        }
+        if (segments != null || binary != null) {
+            try {
+                appendBatch(List.of(entry));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write to log file: " + textFile, e);
+            }
+            return;
+        }
 
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(textFile, true))) {
-            writer.write(line);
+            writer.write(entry.toLine());
             writer.newLine();
         } catch (IOException e) {
             throw new RuntimeException("Failed to write to log file: " + textFile, e);
@@ -39,30 +112,117 @@ public class Logs {
     }
 
     /**
-     * Reads and prints every log entry from the file.
+     * Blocks until every entry queued before this call has been handed to the file.
+     * No-op in sync mode.
      */
-    public void listAll() {
-        File file = new File(textFile);
-        if (!file.exists()) {
+    public void flush() {
+        if (queue == null) {
             return;
         }
+        long target = enqueued.get();
+        progressLock.lock();
+        try {
+            while (written < target && writer.isAlive()) {
+                progressed.await(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            progressLock.unlock();
+        }
+        rethrowWriteFailure();
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
+    /**
+     * Drains the queue, stops the writer thread and closes the channel. Sync mode only closes
+     * the segment channel, if any; later appends reopen it.
+     */
+    @Override
+    public void close() {
+        if (queue == null) {
+            closeChannel();
+            rethrowWriteFailure();
+            return;
+        }
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
             }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Only left if the writer stopped early (interrupted); write them here.
+        List<LogEntry> leftovers = new ArrayList<>();
+        queue.drainTo(leftovers);
+        if (!leftovers.isEmpty()) {
+            writeBatch(leftovers);
+            if (options.getFlushPolicy() == LogOptions.FlushPolicy.FSYNC_PERIODIC) {
+                sync();
+            }
+        }
+        closeChannel();
+        rethrowWriteFailure();
+    }
+
+    /**
+     * Entries discarded because the queue was full under {@link LogOptions.Backpressure#DROP}.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Entries queued but not yet written (always 0 in sync mode).
+     */
+    public int getPendingCount() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Reads and prints every log entry from the file.
+     */
+    public void listAll() {
+        flush();
+        try {
+            forEachLine(System.out::println);
         } catch (IOException e) {
             throw new RuntimeException("Failed to read log file: " + textFile, e);
         }
     }
 
+    /**
+     * Writes every entry to targetFile in the text format, e.g. to hand a binary log to a human.
+     */
+    public void exportText(String targetFile) {
+        flush();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(targetFile), StandardCharsets.UTF_8))) {
+            forEachLine(out::println);
+            if (out.checkError()) {
+                throw new IOException("Write to " + targetFile + " failed");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to export log file: " + textFile, e);
+        }
+    }
+
     /**
      * Reads the log file and prints only entries for the given actor.
      * A log line is considered to belong to an actor if it contains:
      *   "Actor: <actor>;"
      */
     public void listByUser(String actor) {
+        if (segments != null || binary != null) {
+            findByActor(actor).forEach(System.out::println);
+            return;
+        }
+        flush();
         File file = new File(textFile);
         if (!file.exists()) {
             return;
@@ -81,4 +241,240 @@ public class Logs {
             throw new RuntimeException("Failed to read log file: " + textFile, e);
         }
     }
+
+    /**
+     * Lines written by the given actor, oldest first.
+     */
+    public List<String> findByActor(String actor) {
+        return find(actor, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Lines recording the given action, oldest first.
+     */
+    public List<String> findByAction(String action) {
+        return find(null, action, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Lines timestamped within [from, to], oldest first.
+     */
+    public List<String> findBetween(LocalDateTime from, LocalDateTime to) {
+        return find(null, null, LogEntry.epochSecond(from), LogEntry.epochSecond(to));
+    }
+
+    /**
+     * Segmented logs answer from their indexes, binary logs from a mapped scan that skips
+     * non-matching entries by dictionary id; plain logs fall back to parsing every line.
+     */
+    private List<String> find(String actor, String action, long fromEpoch, long toEpoch) {
+        flush();
+        try {
+            if (segments != null) {
+                return segments.find(actor, action, fromEpoch, toEpoch);
+            }
+            List<String> matches = new ArrayList<>();
+            if (binary != null) {
+                BinaryLogReader.open(Path.of(textFile)).forEachMatching(actor, action, fromEpoch, toEpoch, matches::add);
+                return matches;
+            }
+            File file = new File(textFile);
+            if (!file.exists()) {
+                return matches;
+            }
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    LogEntry entry = LogEntry.parse(line);
+                    if (entry != null && entry.matches(actor, action, fromEpoch, toEpoch)) {
+                        matches.add(line);
+                    }
+                }
+            }
+            return matches;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read log file: " + textFile, e);
+        }
+    }
+
+    private void forEachLine(Consumer<String> consumer) throws IOException {
+        if (segments != null) {
+            segments.forEachLine(consumer);
+            return;
+        }
+        if (binary != null) {
+            BinaryLogReader reader = BinaryLogReader.open(Path.of(textFile));
+            while (reader.next()) {
+                consumer.accept(reader.toLine());
+            }
+            return;
+        }
+        File file = new File(textFile);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                consumer.accept(line);
+            }
+        }
+    }
+
+    private void enqueue(LogEntry entry) {
+        // A blocked put() still completes while close() waits: the writer keeps draining
+        // until closed is set.
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Log file is closed: " + textFile);
+            }
+            if (options.getBackpressure() == LogOptions.Backpressure.DROP) {
+                if (!queue.offer(entry)) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+            } else {
+                try {
+                    queue.put(entry);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while queueing log entry for " + textFile, e);
+                }
+            }
+            enqueued.incrementAndGet();
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void drainLoop() {
+        List<LogEntry> batch = new ArrayList<>(options.getMaxBatchSize());
+        long pollMillis = Math.min(IDLE_POLL_MILLIS, options.getFsyncIntervalMillis());
+        long lastSync = System.nanoTime();
+        boolean unsynced = false;
+        while (!closed || !queue.isEmpty()) {
+            LogEntry first;
+            try {
+                first = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, options.getMaxBatchSize() - 1);
+                writeBatch(batch);
+                batch.clear();
+                unsynced = true;
+            }
+            if (unsynced && options.getFlushPolicy() == LogOptions.FlushPolicy.FSYNC_PERIODIC
+                    && System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(options.getFsyncIntervalMillis())) {
+                sync();
+                lastSync = System.nanoTime();
+                unsynced = false;
+            }
+        }
+        if (unsynced && options.getFlushPolicy() != LogOptions.FlushPolicy.WRITE) {
+            sync();
+        }
+    }
+
+    /**
+     * Writes the batch with a single channel write. Failures are recorded and surfaced on the
+     * next flush()/close() because the callers that produced the entries are long gone.
+     */
+    private void writeBatch(List<LogEntry> batch) {
+        try {
+            appendBatch(batch);
+            if (options.getFlushPolicy() == LogOptions.FlushPolicy.FSYNC_EACH_BATCH) {
+                force();
+            }
+        } catch (IOException e) {
+            recordFailure(e);
+            closeChannel();
+        } finally {
+            markWritten(batch.size());
+        }
+    }
+
+    private void appendBatch(List<LogEntry> batch) throws IOException {
+        if (segments != null) {
+            segments.append(batch);
+        } else if (binary != null) {
+            binary.append(batch);
+        } else {
+            writeToChannel(batch);
+        }
+    }
+
+    private void writeToChannel(List<LogEntry> batch) throws IOException {
+        StringBuilder text = new StringBuilder(batch.size() * 128);
+        for (LogEntry entry : batch) {
+            text.append(entry.toLine()).append(System.lineSeparator());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        if (channel == null) {
+            channel = FileChannel.open(Path.of(textFile),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void force() throws IOException {
+        if (segments != null) {
+            segments.force();
+        } else if (binary != null) {
+            binary.force();
+        } else if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    private void sync() {
+        try {
+            force();
+        } catch (IOException e) {
+            recordFailure(e);
+        }
+    }
+
+    private void markWritten(int count) {
+        progressLock.lock();
+        try {
+            written += count;
+            progressed.signalAll();
+        } finally {
+            progressLock.unlock();
+        }
+    }
+
+    private void recordFailure(IOException e) {
+        System.err.println("Failed to write to log file " + textFile + ": " + e.getMessage());
+        writeFailure = e;
+    }
+
+    private void rethrowWriteFailure() {
+        IOException failure = writeFailure;
+        if (failure != null) {
+            writeFailure = null;
+            throw new RuntimeException("Failed to write to log file: " + textFile, failure);
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            if (segments != null) {
+                segments.close();
+            } else if (binary != null) {
+                binary.close();
+            } else if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            recordFailure(e);
+        }
+        channel = null;
+    }
 }
@@ -0,0 +1,51 @@
+package bank;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends outbox events to a local file, one JSON object per line, for offline consumers
+ * (audit export, replay into another system). The file is flushed after every batch.
+ */
+public class NdjsonOutboxSink implements OutboxSink, AutoCloseable {
+    private final BufferedWriter writer;
+
+    public NdjsonOutboxSink(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * The sink configured by bank.outbox.file, or null if that property is not set.
+     */
+    public static NdjsonOutboxSink fromSystemProperty() throws IOException {
+        String file = System.getProperty("bank.outbox.file");
+        return file == null || file.isBlank() ? null : new NdjsonOutboxSink(Path.of(file));
+    }
+
+    @Override
+    public synchronized void publish(List<OutboxEvent> events) throws IOException {
+        for (OutboxEvent event : events) {
+            // The payload is already a JSON object (json_object in Outbox); topics are constants.
+            writer.write("{\"source\":" + event.source()
+                    + ",\"id\":" + event.id()
+                    + ",\"topic\":\"" + event.topic() + "\""
+                    + ",\"aggregateId\":" + event.aggregateId()
+                    + ",\"customerId\":" + event.customerId()
+                    + ",\"createdAt\":" + event.createdAt()
+                    + ",\"payload\":" + event.payload() + "}");
+            writer.newLine();
+        }
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,94 @@
+package bank;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Appends rows to the outbox table: the change feed that {@link OutboxTailer} publishes. Each
+ * method must be called on the connection, and inside the transaction, that makes the change
+ * it records, so a row exists exactly when its change committed. Payloads are built in SQL
+ * from the rows just written (json_object), so they always match what was committed.
+ *
+ * Every database file has its own outbox: account changes go to the account's shard, role
+ * changes to the directory. Ids, and so ordering, are per file; all changes to one account
+ * are in one file and therefore in order.
+ */
+public final class Outbox {
+    public static final String BALANCE = "balance";
+    public static final String ACCOUNT = "account";
+    public static final String ROLE = "role";
+
+    private Outbox() {
+    }
+
+    /**
+     * Records an account's balance as of the current transaction, and the net change the
+     * transaction made to it.
+     */
+    static void balanceChanged(Connection connection, String schema, long accountId, double change)
+            throws SQLException {
+        append(connection, schema, BALANCE,
+                "a.id, a.customer_id, json_object('accountId', a.id, 'balance', " + balanceSql(schema)
+                        + ", 'change', ?, 'accountType', a.account_type)",
+                "FROM " + schema + ".accounts a WHERE a.id = ?",
+                change, accountId);
+    }
+
+    /**
+     * Records an account being opened ("created", after the insert) or closed ("deleted",
+     * before the delete).
+     */
+    static void accountChanged(Connection connection, String change, String accountNumber) throws SQLException {
+        append(connection, "main", ACCOUNT,
+                "a.id, a.customer_id, json_object('change', ?, 'accountId', a.id, 'customerId', a.customer_id, "
+                        + "'accountNumber', a.account_number, 'accountType', a.account_type, "
+                        + "'balance', " + balanceSql("main") + ")",
+                "FROM main.accounts a WHERE a.account_number = ?",
+                change, accountNumber);
+    }
+
+    /**
+     * Records every account of a customer being closed, as {@link #accountChanged} does for
+     * one. Call before the delete.
+     */
+    static void customerAccountsDeleted(Connection connection, long customerId) throws SQLException {
+        append(connection, "main", ACCOUNT,
+                "a.id, a.customer_id, json_object('change', ?, 'accountId', a.id, 'customerId', a.customer_id, "
+                        + "'accountNumber', a.account_number, 'accountType', a.account_type, "
+                        + "'balance', " + balanceSql("main") + ")",
+                "FROM main.accounts a WHERE a.customer_id = ?",
+                "deleted", customerId);
+    }
+
+    /**
+     * Records a user's role changing to newRole. Call before the update; writes nothing if the
+     * role is already newRole (or the user does not exist).
+     */
+    static void roleChanged(Connection connection, String keyColumn, Object key, String newRole) throws SQLException {
+        String role = newRole.toUpperCase();
+        append(connection, "main", ROLE,
+                "id, NULL, json_object('userId', id, 'username', username, 'role', ?, 'previousRole', role)",
+                "FROM main.users WHERE " + keyColumn + " = ? AND role <> ?",
+                role, key, role);
+    }
+
+    private static String balanceSql(String schema) {
+        return "(a.balance + COALESCE((SELECT SUM(s.balance) FROM " + schema
+                + ".account_balance_slots s WHERE s.account_id = a.id), 0))";
+    }
+
+    // INSERT ... SELECT, so the row only exists if the SELECT finds the changed row.
+    private static void append(Connection connection, String schema, String topic, String columns, String from,
+            Object... params) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO " + schema + ".outbox (created_at, topic, aggregate_id, customer_id, payload) "
+                        + "SELECT ?, '" + topic + "', " + columns + " " + from)) {
+            statement.setLong(1, System.currentTimeMillis());
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(i + 2, params[i]);
+            }
+            statement.executeUpdate();
+        }
+    }
+}
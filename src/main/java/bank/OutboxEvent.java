@@ -0,0 +1,17 @@
+package bank;
+
+/**
+ * One row of an outbox, as handed to an {@link OutboxSink}.
+ *
+ * @param source     the database file it came from: a shard number, or
+ *                   {@link #DIRECTORY} for bank.db when it is not also shard 0
+ * @param id         position in that file's outbox; increasing, unique per source
+ * @param topic      {@link Outbox#BALANCE}, {@link Outbox#ACCOUNT} or {@link Outbox#ROLE}
+ * @param customerId the customer the change belongs to, null for role changes
+ * @param payload    JSON object describing the change
+ * @param createdAt  epoch millis at which the change was written
+ */
+public record OutboxEvent(int source, long id, String topic, long aggregateId, Long customerId, String payload,
+        long createdAt) {
+    public static final int DIRECTORY = -1;
+}
@@ -0,0 +1,16 @@
+package bank;
+
+import java.util.List;
+
+/**
+ * Destination for outbox events. Delivery is at least once: if publish throws, the same
+ * batch (possibly with more events appended) is offered again on the next poll, so sinks
+ * that cannot tolerate duplicates should skip events by (source, id).
+ */
+@FunctionalInterface
+public interface OutboxSink {
+    /**
+     * Publishes a batch of events from one source, in id order.
+     */
+    void publish(List<OutboxEvent> events) throws Exception;
+}
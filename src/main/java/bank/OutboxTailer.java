@@ -0,0 +1,198 @@
+package bank;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes the outbox (see {@link Outbox}) to a list of sinks. Every
+ * bank.outbox.pollMillis it reads each database file's outbox past the last checkpoint, in id
+ * order and at most bank.outbox.batchSize rows at a time, hands the batch to every sink, and
+ * then stores the new position in that file's outbox_checkpoints table. A restart resumes from
+ * the stored position.
+ *
+ * SQLite has one writer per file, so ids become visible in increasing order and reading
+ * past the checkpoint never skips a row that commits later. If a sink throws, the checkpoint
+ * stays put and the batch is offered again on the next poll: sinks see every event at least
+ * once. Published rows older than bank.outbox.retentionHours are deleted.
+ */
+public class OutboxTailer {
+    static final String CONSUMER = "tailer";
+
+    private static final long POLL_MILLIS = Long.getLong("bank.outbox.pollMillis", 200);
+    private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("bank.outbox.batchSize", 500));
+    private static final long RETENTION_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("bank.outbox.retentionHours", 24));
+
+    private final DatabaseManager databaseManager;
+    private final List<OutboxSink> sinks = new CopyOnWriteArrayList<>();
+    private final Map<Integer, Long> checkpoints = new HashMap<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public OutboxTailer(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Adds a sink. Sinks added after {@link #start} only see events not yet published.
+     */
+    public OutboxTailer addSink(OutboxSink sink) {
+        sinks.add(sink);
+        return this;
+    }
+
+    /**
+     * Starts polling on a daemon thread.
+     */
+    public void start() {
+        ScheduledExecutorService tailer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbox-tailer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tailer.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (RuntimeException e) {
+                System.err.println("Error tailing outbox: " + e.getMessage());
+            }
+        }, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Publishes everything currently in the outboxes, one batch after another, and returns the
+     * number of events published. Not thread-safe; the scheduled poll is its only caller
+     * once {@link #start} has been called.
+     */
+    public int poll() {
+        int total = 0;
+        for (int source : sources()) {
+            int count;
+            do {
+                count = pollOnce(source);
+                total += count;
+            } while (count == BATCH_SIZE);
+        }
+        return total;
+    }
+
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    // Role changes are written to the directory; with one shard that is the same file.
+    private List<Integer> sources() {
+        List<Integer> sources = new ArrayList<>();
+        if (databaseManager.getShardCount() > 1) {
+            sources.add(OutboxEvent.DIRECTORY);
+        }
+        for (int shard = 0; shard < databaseManager.getShardCount(); shard++) {
+            sources.add(shard);
+        }
+        return sources;
+    }
+
+    private int pollOnce(int source) {
+        RepositoryEvent event = RepositoryEvent.start("OutboxTailer.poll");
+        try (Connection connection = source == OutboxEvent.DIRECTORY ? databaseManager.getConnection()
+                : databaseManager.getShardConnection(source)) {
+            Long checkpoint = checkpoints.get(source);
+            if (checkpoint == null) {
+                checkpoint = readCheckpoint(connection);
+                checkpoints.put(source, checkpoint);
+            }
+            List<OutboxEvent> events = read(connection, source, checkpoint);
+            event.rows = events.size();
+            if (events.isEmpty()) {
+                return 0;
+            }
+            for (OutboxSink sink : sinks) {
+                try {
+                    sink.publish(events);
+                } catch (Exception e) {
+                    failures.increment();
+                    System.err.println("Outbox sink " + sink.getClass().getSimpleName() + " failed, retrying from id "
+                            + checkpoint + ": " + e.getMessage());
+                    return 0;
+                }
+            }
+            long last = events.get(events.size() - 1).id();
+            writeCheckpoint(connection, last);
+            checkpoints.put(source, last);
+            published.add(events.size());
+            batches.increment();
+            return events.size();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to read outbox of source " + source, e);
+        } finally {
+            event.commit();
+        }
+    }
+
+    private static long readCheckpoint(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT last_id FROM outbox_checkpoints WHERE consumer = ?")) {
+            statement.setString(1, CONSUMER);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong("last_id") : 0;
+            }
+        }
+    }
+
+    private static List<OutboxEvent> read(Connection connection, int source, long after) throws SQLException {
+        List<OutboxEvent> events = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT id, topic, aggregate_id, customer_id, payload, created_at FROM outbox "
+                        + "WHERE id > ? ORDER BY id LIMIT ?")) {
+            statement.setLong(1, after);
+            statement.setInt(2, BATCH_SIZE);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    long customerId = rs.getLong("customer_id");
+                    boolean noCustomer = rs.wasNull();
+                    events.add(new OutboxEvent(source, rs.getLong("id"), rs.getString("topic"),
+                            rs.getLong("aggregate_id"), noCustomer ? null : customerId,
+                            rs.getString("payload"), rs.getLong("created_at")));
+                }
+            }
+        }
+        return events;
+    }
+
+    private static void writeCheckpoint(Connection connection, long lastId) throws SQLException {
+        DatabaseManager.inTransaction(connection, c -> {
+            try (PreparedStatement checkpoint = c.prepareStatement(
+                    "INSERT INTO outbox_checkpoints (consumer, last_id) VALUES (?, ?) "
+                            + "ON CONFLICT(consumer) DO UPDATE SET last_id = excluded.last_id");
+                    PreparedStatement prune = c.prepareStatement(
+                            "DELETE FROM outbox WHERE id <= ? AND created_at < ?")) {
+                checkpoint.setString(1, CONSUMER);
+                checkpoint.setLong(2, lastId);
+                checkpoint.executeUpdate();
+                prune.setLong(1, lastId);
+                prune.setLong(2, System.currentTimeMillis() - RETENTION_MILLIS);
+                prune.executeUpdate();
+            }
+            return null;
+        });
+    }
+}
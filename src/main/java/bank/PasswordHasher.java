@@ -0,0 +1,267 @@
+package bank;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashes and verifies passwords with PBKDF2-HMAC-SHA256. Stored values look like
+ * {@code pbkdf2$<iterations>$<salt>$<hash>} (Base64). Rows written before hashing existed hold
+ * either the plaintext password or the unsalted SHA-256 hex that User.changePassword used to
+ * store; both still verify, and {@link #needsRehash(String)} tells the login path to upgrade them.
+ *
+ * PBKDF2 is deliberately slow, so the work runs on a small fixed pool with a bounded queue
+ * rather than on the request threads. When the queue is full the call fails fast with
+ * RejectedExecutionException instead of piling up more CPU work.
+ */
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static volatile PasswordHasher defaultInstance;
+
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+    private final LongAdder workNanos = new LongAdder();
+
+    /**
+     * @param iterations    PBKDF2 cost factor for new hashes
+     * @param threads       worker threads; hashing never uses more CPUs than this
+     * @param queueCapacity requests allowed to wait for a worker before new ones are rejected
+     */
+    public PasswordHasher(int iterations, int threads, int queueCapacity) {
+        if (iterations < 1 || threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("iterations, threads and queueCapacity must be positive");
+        }
+        this.iterations = iterations;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "password-hasher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Shared instance configured from bank.password.iterations (default 210000),
+     * bank.password.threads (default: available processors) and bank.password.queue
+     * (default 64).
+     */
+    public static PasswordHasher getDefault() {
+        PasswordHasher hasher = defaultInstance;
+        if (hasher == null) {
+            synchronized (PasswordHasher.class) {
+                hasher = defaultInstance;
+                if (hasher == null) {
+                    hasher = new PasswordHasher(
+                            Integer.getInteger("bank.password.iterations", 210_000),
+                            Integer.getInteger("bank.password.threads", Runtime.getRuntime().availableProcessors()),
+                            Integer.getInteger("bank.password.queue", 64));
+                    defaultInstance = hasher;
+                }
+            }
+        }
+        return hasher;
+    }
+
+    /**
+     * Hashes a password with a fresh salt at the configured cost.
+     */
+    public String hash(String password) {
+        return run(() -> {
+            byte[] salt = new byte[SALT_BYTES];
+            RANDOM.nextBytes(salt);
+            byte[] hash = pbkdf2(password, salt, iterations);
+            Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+            return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+        });
+    }
+
+    /**
+     * Checks a password against a stored value in any of the supported formats.
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            // Legacy rows are cheap to check; no need to queue for a worker.
+            String candidate = isLegacySha256(stored) ? sha256Hex(password) : password;
+            return MessageDigest.isEqual(candidate.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        int storedIterations = storedIterations(parts);
+        if (storedIterations < 1) {
+            return false;
+        }
+        byte[] salt;
+        byte[] expected;
+        try {
+            salt = Base64.getDecoder().decode(parts[2]);
+            expected = Base64.getDecoder().decode(parts[3]);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (salt.length == 0 || expected.length == 0) {
+            return false;
+        }
+        return run(() -> MessageDigest.isEqual(pbkdf2(password, salt, storedIterations), expected));
+    }
+
+    /**
+     * True if the stored value is a legacy password or a PBKDF2 hash below the current cost.
+     * A malformed PBKDF2 value never verifies, so there is nothing to upgrade.
+     */
+    public boolean needsRehash(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) {
+            return true;
+        }
+        int storedIterations = storedIterations(stored.split("\\$"));
+        return storedIterations >= 1 && storedIterations < iterations;
+    }
+
+    /**
+     * True if the value looks like a hash (PBKDF2 or legacy SHA-256). A plaintext password can
+     * look like one too, so this is no reason to skip hashing a password a user supplied.
+     */
+    public static boolean isEncoded(String stored) {
+        return stored != null && (stored.startsWith(PREFIX) || isLegacySha256(stored));
+    }
+
+    // Iteration count of a split PBKDF2 value, or -1 if the value is malformed.
+    private static int storedIterations(String[] parts) {
+        if (parts.length != 4) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Total time tasks spent waiting for a worker.
+     */
+    public long getTotalQueueNanos() {
+        return queueNanos.sum();
+    }
+
+    public long getMaxQueueNanos() {
+        return maxQueueNanos.get();
+    }
+
+    /**
+     * Total time spent hashing.
+     */
+    public long getTotalWorkNanos() {
+        return workNanos.sum();
+    }
+
+    private <T> T run(Callable<T> task) {
+        long enqueued = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long started = System.nanoTime();
+                long waited = started - enqueued;
+                queueNanos.add(waited);
+                maxQueueNanos.accumulateAndGet(waited, Math::max);
+                try {
+                    return task.call();
+                } finally {
+                    workNanos.add(System.nanoTime() - started);
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing password", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to hash password", e.getCause());
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static boolean isLegacySha256(String stored) {
+        if (stored.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < stored.length(); i++) {
+            if (Character.digit(stored.charAt(i), 16) < 0 || Character.isUpperCase(stored.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String sha256Hex(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package bank;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event emitted around every repository call that talks to SQLite.
+ * The event duration is the wall time spent in the call (connection + statement + mapping),
+ * so DB time can be lined up against GC pauses and lock contention in JMC.
+ *
+ * When no recording is running the JVM turns begin/commit into near no-ops, which is why
+ * the repositories emit these unconditionally.
+ */
+@Name("bank.RepositoryOperation")
+@Label("Repository Operation")
+@Category({ "BankUml", "Database" })
+@Description("A single repository call against the SQLite database")
+@StackTrace(false)
+public class RepositoryEvent extends Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Rows")
+    @Description("Rows returned by a query or affected by an update")
+    public int rows;
+
+    @Label("Account Id")
+    public long accountId;
+
+    @Label("User Id")
+    public long userId;
+
+    @Label("Lookup Key")
+    @Description("Account number or username the call was keyed by, when there is no numeric id")
+    public String lookupKey;
+
+    /**
+     * Creates the event and starts its clock. Callers fill in rows/ids as they learn them and
+     * call {@link #commit()} from a finally block.
+     */
+    public static RepositoryEvent start(String operation) {
+        RepositoryEvent event = new RepositoryEvent();
+        event.operation = operation;
+        event.begin();
+        return event;
+    }
+}
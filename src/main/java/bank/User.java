@@ -1,9 +1,5 @@
 package bank;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Formatter;
 import java.util.UUID;
 
 public abstract class User {
@@ -75,8 +71,8 @@ public abstract class User {
             throw new IllegalArgumentException("Password must be at least 6 characters long.");
         }
 
-        String hashedPassword = hashPassword(newPassword);
-        this.password = hashedPassword;
+        PasswordHasher hasher = userRepository != null ? userRepository.getPasswordHasher() : PasswordHasher.getDefault();
+        this.password = hasher.hash(newPassword);
 
         if (userRepository != null) {
             userRepository.updatePassword(this);
@@ -92,21 +88,6 @@ public abstract class User {
         }
     }
 
-    private String hashPassword(String newPassword) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashedBytes = digest.digest(newPassword.getBytes(StandardCharsets.UTF_8));
-            try (Formatter formatter = new Formatter()) {
-                for (byte b : hashedBytes) {
-                    formatter.format("%02x", b);
-                }
-                return formatter.toString();
-            }
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Unable to hash password", e);
-        }
-    }
-
     public void requestForgottenPassword() {
         String token = UUID.randomUUID().toString();
 
@@ -121,7 +102,9 @@ public abstract class User {
 
         System.out.println("Admin notified: " + this.getUserName() + " requested a password reset. Token: " + token);
 
-        this.password = token;  // Store temporary token as password for this demo.
+        // Store the temporary token as the password for this demo.
+        PasswordHasher hasher = userRepository != null ? userRepository.getPasswordHasher() : PasswordHasher.getDefault();
+        this.password = hasher.hash(token);
 
         if (userRepository != null) {
             userRepository.updatePassword(this);
@@ -13,14 +13,38 @@ public class UserRepository {
     // Lightweight cache so callers can inspect the last loaded/added users without
     // hitting the DB.
     private final List<User> userList;
+    // Passwords are hashed here, on the way into the users table.
+    private final PasswordHasher passwordHasher;
+    private final IdentityCache identities = IdentityCache.shared();
 
     public UserRepository(DatabaseManager databaseManager) {
+        this(databaseManager, PasswordHasher.getDefault());
+    }
+
+    public UserRepository(DatabaseManager databaseManager, PasswordHasher passwordHasher) {
         this.databaseManager = databaseManager;
+        this.passwordHasher = passwordHasher;
         this.databaseManager.initialize();
         this.userList = new ArrayList<>();
     }
 
+    /**
+     * Adds or updates a user. The user's password is plaintext and is hashed before it is
+     * stored, whatever it looks like.
+     */
     public void addUsers(User user) {
+        upsert(user, passwordHasher.hash(user.getPassword()));
+    }
+
+    /**
+     * Same as {@link #addUsers(User)} for a user whose password is the value already stored
+     * in the users table, such as a staff member re-added under a new role.
+     */
+    public void addUserWithEncodedPassword(User user) {
+        upsert(user, user.getPassword());
+    }
+
+    private void upsert(User user, String encodedPassword) {
         System.out.println("Adding user: " + user.getUserName());
         // UPSERT keeps the table in sync even if the same username is inserted twice
         // (updates instead).
@@ -33,18 +57,31 @@ public class UserRepository {
                 + "role = excluded.role;";
         // TODO: guard against concurrent modifications by synchronizing on the
         // repository or using DB transactions.
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, user.getFirstName());
-            statement.setString(2, user.getLastName());
-            statement.setString(3, user.getUserName());
-            statement.setString(4, user.getPassword());
-            statement.setString(5, user.getClass().getSimpleName().toUpperCase());
-            statement.executeUpdate();
+        RepositoryEvent event = RepositoryEvent.start("UserRepository.addUsers");
+        event.lookupKey = user.getUserName();
+        String role = user.getClass().getSimpleName().toUpperCase();
+        try (Connection connection = databaseManager.getConnection()) {
+            user.setPassword(encodedPassword);
+            event.rows = DatabaseManager.inTransaction(connection, c -> {
+                // Only an existing username whose role differs produces an event.
+                Outbox.roleChanged(c, "username", user.getUserName(), role);
+                try (PreparedStatement statement = c.prepareStatement(sql)) {
+                    statement.setString(1, user.getFirstName());
+                    statement.setString(2, user.getLastName());
+                    statement.setString(3, user.getUserName());
+                    statement.setString(4, user.getPassword());
+                    statement.setString(5, role);
+                    return statement.executeUpdate();
+                }
+            });
+            // The upsert may have changed the role of an existing username.
+            identities.invalidate(user.getUserName());
             userList.removeIf(existing -> existing.getUserName().equals(user.getUserName()));
             userList.add(user);
         } catch (SQLException e) {
             throw new RuntimeException("Unable to add user " + user.getUserName(), e);
+        } finally {
+            event.commit();
         }
     }
 
@@ -57,13 +94,18 @@ public class UserRepository {
         String sql = "DELETE FROM users WHERE username = ?";
         // TODO: ensure concurrent deletes don't race by using database-level locks or
         // transactions.
+        RepositoryEvent event = RepositoryEvent.start("UserRepository.deleteUsers");
+        event.lookupKey = user.getUserName();
         try (Connection connection = databaseManager.getConnection();
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setString(1, user.getUserName());
-            statement.executeUpdate();
+            event.rows = statement.executeUpdate();
+            identities.invalidate(user.getUserName());
             userList.removeIf(existing -> existing.getUserName().equals(user.getUserName()));
         } catch (SQLException e) {
             throw new RuntimeException("Unable to delete user " + user.getUserName(), e);
+        } finally {
+            event.commit();
         }
     }
 
@@ -97,6 +139,8 @@ public class UserRepository {
 
         List<User> results = new ArrayList<>();
 
+        RepositoryEvent event = RepositoryEvent.start("UserRepository.search");
+        event.lookupKey = usernameFragment;
         try (Connection connection = databaseManager.getConnection();
                 PreparedStatement statement = connection.prepareStatement(sql.toString())) {
 
@@ -113,8 +157,11 @@ public class UserRepository {
                     results.add(mapRowToUser(resultSet));
                 }
             }
+            event.rows = results.size();
         } catch (SQLException e) {
             throw new RuntimeException("Unable to search for users", e);
+        } finally {
+            event.commit();
         }
 
         return results;
@@ -157,7 +204,7 @@ public class UserRepository {
     public void save() {
         System.out.println("Saving in-memory users to the database.");
         for (User user : new ArrayList<>(userList)) {
-            addUsers(user);
+            addUserWithEncodedPassword(user);
         }
     }
 
@@ -166,14 +213,18 @@ public class UserRepository {
         System.out.println("Loading users from the database into memory.");
         userList.clear();
         String sql = "SELECT first_name, last_name, username, password, role FROM users";
+        RepositoryEvent event = RepositoryEvent.start("UserRepository.load");
         try (Connection connection = databaseManager.getConnection();
                 PreparedStatement statement = connection.prepareStatement(sql);
                 ResultSet resultSet = statement.executeQuery()) {
             while (resultSet.next()) {
                 userList.add(mapRowToUser(resultSet));
             }
+            event.rows = userList.size();
         } catch (SQLException e) {
             throw new RuntimeException("Unable to load users from the database", e);
+        } finally {
+            event.commit();
         }
     }
 
@@ -184,18 +235,22 @@ public class UserRepository {
     public void listAll() {
         String sql = "SELECT first_name, last_name, username, password, role FROM users";
         boolean found = false;
+        RepositoryEvent event = RepositoryEvent.start("UserRepository.listAll");
         try (Connection connection = databaseManager.getConnection();
                 PreparedStatement statement = connection.prepareStatement(sql);
                 ResultSet resultSet = statement.executeQuery()) {
             while (resultSet.next()) {
                 User user = mapRowToUser(resultSet);
                 found = true;
+                event.rows++;
                 if (user != null) {
                     user.printUserInfo();
                 }
             }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to list users", e);
+        } finally {
+            event.commit();
         }
 
         if (!found) {
@@ -203,84 +258,106 @@ public class UserRepository {
         }
     }
 
+    /**
+     * Stores the user's password field as it is; callers set it to a hash first.
+     */
     public void updatePassword(User user) {
         String sql = "UPDATE users SET password = ? WHERE username = ?";
+        RepositoryEvent event = RepositoryEvent.start("UserRepository.updatePassword");
+        event.lookupKey = user.getUserName();
         try (Connection connection = databaseManager.getConnection();
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setString(1, user.getPassword());
             statement.setString(2, user.getUserName());
-            statement.executeUpdate();
+            event.rows = statement.executeUpdate();
 
             userList.removeIf(existing -> existing.getUserName().equals(user.getUserName()));
             userList.add(user);
         } catch (SQLException e) {
             throw new RuntimeException("Unable to update password for " + user.getUserName(), e);
+        } finally {
+            event.commit();
         }
     }
 
     public void updateRole(long userId, String newRole) {
         String sql = "UPDATE users SET role = ? WHERE id = ?";
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, newRole.toUpperCase());
-            statement.setLong(2, userId);
-            statement.executeUpdate();
+        RepositoryEvent event = RepositoryEvent.start("UserRepository.updateRole");
+        event.userId = userId;
+        try (Connection connection = databaseManager.getConnection()) {
+            event.rows = DatabaseManager.inTransaction(connection, c -> {
+                Outbox.roleChanged(c, "id", userId, newRole);
+                try (PreparedStatement statement = c.prepareStatement(sql)) {
+                    statement.setString(1, newRole.toUpperCase());
+                    statement.setLong(2, userId);
+                    return statement.executeUpdate();
+                }
+            });
+            identities.invalidate(userId);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to update role for user ID: " + userId, e);
+        } finally {
+            event.commit();
         }
     }
 
     public void updatePassword(String username, String newPassword) {
         String sql = "UPDATE users SET password = ? WHERE username = ?";
 
+        RepositoryEvent event = RepositoryEvent.start("UserRepository.updatePassword");
+        event.lookupKey = username;
         try (Connection connection = databaseManager.getConnection();
                 PreparedStatement statement = connection.prepareStatement(sql)) {
 
-            statement.setString(1, newPassword);
+            statement.setString(1, passwordHasher.hash(newPassword));
             statement.setString(2, username);
-            statement.executeUpdate();
+            event.rows = statement.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException("Failed to update password for user: " + username, e);
+        } finally {
+            event.commit();
         }
     }
 
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
+
     private boolean canDelete(User user) {
         String role = user instanceof Admin ? "ADMIN" : null;
         if (role == null) {
             return true;
         }
         String sql = "SELECT COUNT(*) AS total FROM users WHERE role = ?";
+        RepositoryEvent event = RepositoryEvent.start("UserRepository.canDelete");
+        event.lookupKey = user.getUserName();
         try (Connection connection = databaseManager.getConnection();
                 PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.setString(1, role);
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
+                    event.rows = 1;
                     return resultSet.getInt("total") > 1;
                 }
             }
         } catch (SQLException e) {
             throw new RuntimeException("Unable to verify delete constraints for " + user.getUserName(), e);
+        } finally {
+            event.commit();
         }
         return false;
     }
 
     public String findRoleByUsername(String username) {
-        String sql = "SELECT role FROM users WHERE username = ?";
-        try (Connection connection = databaseManager.getConnection();
-                PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, username);
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return resultSet.getString("role");
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to retrieve role for " + username, e);
-        }
-        return null;
+        IdentityCache.Identity identity = identities.byUsername(username);
+        return identity == null ? null : identity.role();
     }
 
-    private User mapRowToUser(ResultSet resultSet) throws SQLException {
+    /**
+     * Builds a User from a row carrying the users columns. Public so joined queries elsewhere
+     * (e.g. the login lookup) materialize users the same way search does.
+     */
+    public User mapRowToUser(ResultSet resultSet) throws SQLException {
         String firstName = resultSet.getString("first_name");
         String lastName = resultSet.getString("last_name");
         String username = resultSet.getString("username");
@@ -0,0 +1,53 @@
+package bank;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The identity cache must never answer with a role or id the users table no longer has.
+ */
+public class IdentityCacheTest {
+
+    private UserRepository userRepository;
+    private final IdentityCache identities = IdentityCache.shared();
+
+    @BeforeEach
+    void setUp() {
+        userRepository = new UserRepository(new DatabaseManager());
+        userRepository.addUsers(new Teller("Ivy", "Teller", "ivy_identity", "pass123"));
+    }
+
+    @Test
+    void lookupsByUsernameAndIdAgree() {
+        IdentityCache.Identity byName = identities.byUsername("ivy_identity");
+
+        assertNotNull(byName);
+        assertEquals("TELLER", byName.role());
+        assertEquals(byName, identities.byId(byName.id()));
+        assertNull(identities.byUsername("no_such_identity_user"));
+    }
+
+    @Test
+    void secondLookupIsServedFromMemory() {
+        identities.byUsername("ivy_identity");
+        long misses = identities.getMisses();
+
+        identities.byUsername("ivy_identity");
+
+        assertEquals(misses, identities.getMisses());
+    }
+
+    @Test
+    void roleChangeIsVisibleImmediately() {
+        long id = identities.byUsername("ivy_identity").id();
+
+        userRepository.updateRole(id, "ADMIN");
+        assertEquals("ADMIN", userRepository.findRoleByUsername("ivy_identity"));
+
+        // Upserting the user back as a teller goes through addUsers.
+        userRepository.addUsers(new Teller("Ivy", "Teller", "ivy_identity", "pass123"));
+        assertEquals("TELLER", identities.byId(id).role());
+    }
+}
@@ -0,0 +1,192 @@
+package bank;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Transfers must move money atomically: both legs and both rows, or nothing.
+ */
+public class LedgerServiceTest {
+
+    private DatabaseManager databaseManager;
+    private AccountRepository accountRepository;
+    private LedgerService ledger;
+    private long customerId;
+
+    @BeforeEach
+    void setUp() {
+        databaseManager = new DatabaseManager();
+        UserRepository userRepository = new UserRepository(databaseManager);
+        accountRepository = new AccountRepository(databaseManager);
+        ledger = new LedgerService(databaseManager);
+        userRepository.addUsers(new Customer("Lena", "Ledger", "lena_ledger", "pass123"));
+        customerId = IdentityCache.shared().byUsername("lena_ledger").id();
+    }
+
+    @Test
+    void transferMovesMoneyAndLinksBothRows() throws Exception {
+        long from = openAccount(100.0);
+        long to = openAccount(5.0);
+
+        LedgerService.TransferResult result = ledger.transfer(new LedgerService.Transfer(from, to, 40.0, "rent"));
+
+        assertEquals(60.0, result.fromBalance());
+        assertEquals(45.0, result.toBalance());
+        assertEquals(60.0, balance(from));
+        assertEquals(45.0, balance(to));
+        assertEquals(2, rowsForTransfer(result.transferId()));
+    }
+
+    @Test
+    void insufficientFundsChangesNothing() throws Exception {
+        long from = openAccount(10.0);
+        long to = openAccount(0.0);
+
+        assertThrows(IllegalStateException.class,
+                () -> ledger.transfer(new LedgerService.Transfer(from, to, 10.01, null)));
+
+        assertEquals(10.0, balance(from));
+        assertEquals(0.0, balance(to));
+    }
+
+    @Test
+    void batchIsAllOrNothing() throws Exception {
+        long payer = openAccount(100.0);
+        long first = openAccount(0.0);
+        long second = openAccount(0.0);
+
+        List<LedgerService.Transfer> payroll = List.of(
+                new LedgerService.Transfer(payer, first, 60.0, "payroll"),
+                new LedgerService.Transfer(payer, second, 60.0, "payroll"));
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> ledger.transferAll(payroll));
+        assertTrue(e.getMessage().startsWith("Transfer 2"));
+        assertEquals(100.0, balance(payer));
+        assertEquals(0.0, balance(first));
+
+        List<LedgerService.TransferResult> results = ledger.transferAll(List.of(
+                new LedgerService.Transfer(payer, first, 60.0, "payroll"),
+                new LedgerService.Transfer(payer, second, 40.0, "payroll")));
+        assertEquals(2, results.size());
+        assertEquals(0.0, balance(payer));
+        assertEquals(40.0, results.get(1).toBalance());
+    }
+
+    @Test
+    void opposingTransfersDoNotDeadlockOrLoseMoney() throws Exception {
+        long a = openAccount(1000.0);
+        long b = openAccount(1000.0);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(pool.submit(() -> ledger.transfer(new LedgerService.Transfer(a, b, 1.0, null))));
+                futures.add(pool.submit(() -> ledger.transfer(new LedgerService.Transfer(b, a, 1.0, null))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1000.0, balance(a));
+        assertEquals(1000.0, balance(b));
+    }
+
+    @Test
+    void hotAccountCreditsLandInSlotsAndStillCountForDebits() throws Exception {
+        long merchant = openAccount(0.0);
+        long payer = openAccount(100.0);
+        LedgerService hot = new LedgerService(databaseManager, Set.of(merchant));
+
+        LedgerService.TransferResult result = hot.transfer(new LedgerService.Transfer(payer, merchant, 30.0, null));
+        double afterDeposit = hot.post(merchant, new Transaction(String.valueOf(merchant), 20.0, "credit", "deposit"));
+
+        assertEquals(30.0, result.toBalance());
+        assertEquals(50.0, afterDeposit);
+        assertEquals(0.0, balance(merchant));
+        assertEquals(2, hot.getSlotCreditCount());
+        assertThrows(IllegalStateException.class,
+                () -> hot.transfer(new LedgerService.Transfer(merchant, payer, 50.01, null)));
+        assertEquals(10.0, hot.transfer(new LedgerService.Transfer(merchant, payer, 40.0, null)).fromBalance());
+
+        hot.consolidate();
+        assertEquals(10.0, balance(merchant));
+        assertEquals(110.0, balance(payer));
+    }
+
+    @Test
+    void committedBalancesReachOutboxSinksOnceAndFailedOnesNever() throws Exception {
+        long from = openAccount(50.0);
+        long to = openAccount(0.0);
+        List<OutboxEvent> published = new ArrayList<>();
+        OutboxTailer tailer = new OutboxTailer(databaseManager).addSink(published::addAll);
+        tailer.poll();
+        published.clear();
+
+        ledger.transfer(new LedgerService.Transfer(from, to, 20.0, null));
+        assertThrows(IllegalStateException.class,
+                () -> ledger.transfer(new LedgerService.Transfer(from, to, 500.0, null)));
+        tailer.poll();
+        tailer.poll();
+
+        assertEquals(2, published.size());
+        for (OutboxEvent event : published) {
+            assertEquals(Outbox.BALANCE, event.topic());
+            assertEquals(customerId, event.customerId());
+        }
+        assertEquals(from, published.get(0).aggregateId());
+        assertTrue(published.get(0).payload().contains("\"balance\":30.0"));
+        assertEquals(to, published.get(1).aggregateId());
+    }
+
+    private long openAccount(double balance) throws Exception {
+        String accountNumber = accountRepository.generateNewAccountNumber();
+        accountRepository.createAccount(customerId, "SAVING", accountNumber, balance);
+        try (Connection connection = databaseManager.getConnection();
+                PreparedStatement statement = connection.prepareStatement(
+                        "SELECT id FROM accounts WHERE account_number = ?")) {
+            statement.setString(1, accountNumber);
+            try (ResultSet rs = statement.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getLong("id");
+            }
+        }
+    }
+
+    private double balance(long accountId) throws Exception {
+        try (Connection connection = databaseManager.getConnection();
+                PreparedStatement statement = connection.prepareStatement(
+                        "SELECT balance FROM accounts WHERE id = ?")) {
+            statement.setLong(1, accountId);
+            try (ResultSet rs = statement.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getDouble("balance");
+            }
+        }
+    }
+
+    private int rowsForTransfer(String transferId) throws Exception {
+        try (Connection connection = databaseManager.getConnection();
+                PreparedStatement statement = connection.prepareStatement(
+                        "SELECT COUNT(*) FROM transactions WHERE transfer_id = ?")) {
+            statement.setString(1, transferId);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package bank;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogsTest {
+
+    private Path createTempLogPath() {
+        try {
+            Path logPath = Files.createTempFile("logs-test-", ".txt");
+            logPath.toFile().deleteOnExit();
+            return logPath;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create temp log file for tests", e);
+        }
+    }
+
+    private Path createTempLogDir() {
+        try {
+            Path dir = Files.createTempDirectory("logs-test-");
+            dir.toFile().deleteOnExit();
+            return dir;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create temp log directory for tests", e);
+        }
+    }
+
+    private long countFiles(Path dir, String suffix) {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(suffix)).count();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list temp log directory", e);
+        }
+    }
+
+    private List<String> readLines(Path logPath) {
+        try {
+            return Files.readAllLines(logPath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read temp log file", e);
+        }
+    }
+
+    @Test
+    void syncAppendWritesImmediately() {
+        Path logPath = createTempLogPath();
+        Logs logs = new Logs(logPath.toString());
+
+        logs.append("alice", "LOGIN", "branch", "ok");
+
+        List<String> lines = readLines(logPath);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).endsWith("; Actor: alice; Action: LOGIN; Target: branch; Details: ok"));
+    }
+
+    @Test
+    void asyncFlushWritesEntriesInOrder() {
+        Path logPath = createTempLogPath();
+        try (Logs logs = new Logs(logPath.toString(), LogOptions.async().queueCapacity(16).maxBatchSize(4))) {
+            for (int i = 0; i < 100; i++) {
+                logs.append("user" + i, "LOGIN", "branch", "attempt " + i);
+            }
+            logs.flush();
+
+            List<String> lines = readLines(logPath);
+            assertEquals(100, lines.size());
+            for (int i = 0; i < 100; i++) {
+                assertTrue(lines.get(i).contains("Actor: user" + i + ";"));
+            }
+        }
+    }
+
+    @Test
+    void asyncCloseDrainsQueueAndRejectsFurtherAppends() {
+        Path logPath = createTempLogPath();
+        Logs logs = new Logs(logPath.toString(),
+                LogOptions.async().flushPolicy(LogOptions.FlushPolicy.FSYNC_EACH_BATCH));
+        for (int i = 0; i < 10; i++) {
+            logs.append("bob", "DELETE", "account " + i, "removed");
+        }
+
+        logs.close();
+
+        assertEquals(10, readLines(logPath).size());
+        assertThrows(IllegalStateException.class, () -> logs.append("bob", "DELETE", "account", "late"));
+    }
+
+    @Test
+    void appendsRacingCloseAreEitherWrittenOrRejected() throws Exception {
+        Path logPath = createTempLogPath();
+        Logs logs = new Logs(logPath.toString(), LogOptions.async().queueCapacity(4));
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> appenders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread appender = new Thread(() -> {
+                try {
+                    while (true) {
+                        logs.append("gina", "LOGIN", "branch", "during close");
+                        accepted.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    // Closed.
+                }
+            });
+            appender.start();
+            appenders.add(appender);
+        }
+        Thread.sleep(50);
+
+        logs.close();
+        for (Thread appender : appenders) {
+            appender.join();
+        }
+
+        assertEquals(accepted.get(), readLines(logPath).size());
+    }
+
+    @Test
+    void dropBackpressureCountsEverythingThatWasNotWritten() {
+        Path logPath = createTempLogPath();
+        try (Logs logs = new Logs(logPath.toString(),
+                LogOptions.async().queueCapacity(1).backpressure(LogOptions.Backpressure.DROP))) {
+            for (int i = 0; i < 1_000; i++) {
+                logs.append("carol", "LOGIN", "branch", "burst " + i);
+            }
+            logs.flush();
+
+            assertEquals(1_000, readLines(logPath).size() + logs.getDroppedCount());
+        }
+    }
+
+    @Test
+    void segmentedLogRollsBySizeAndAnswersQueriesFromIndexes() {
+        Path logPath = createTempLogDir().resolve("audit.txt");
+        try (Logs logs = new Logs(logPath.toString(), LogOptions.async().segmentMaxBytes(1_024))) {
+            for (int i = 0; i < 60; i++) {
+                logs.append(i % 3 == 0 ? "dave" : "erin", i % 2 == 0 ? "LOGIN" : "DELETE", "account " + i, "n/a");
+            }
+
+            List<String> dave = logs.findByActor("dave");
+            assertEquals(20, dave.size());
+            assertTrue(dave.get(0).contains("Target: account 0;"));
+            assertTrue(dave.get(19).contains("Target: account 57;"));
+            assertEquals(30, logs.findByAction("DELETE").size());
+            assertTrue(logs.findByActor("nobody").isEmpty());
+
+            LocalDateTime now = LocalDateTime.now();
+            assertEquals(60, logs.findBetween(now.minusMinutes(1), now.plusMinutes(1)).size());
+            assertTrue(logs.findBetween(now.minusDays(2), now.minusDays(1)).isEmpty());
+        }
+
+        Path dir = logPath.getParent();
+        assertTrue(countFiles(dir, ".idx") > 1);
+        assertEquals(countFiles(dir, ".idx"), countFiles(dir, "") - 1 - countFiles(dir, ".idx"));
+    }
+
+    @Test
+    void segmentedLogRebuildsIndexesWhenReopened() throws IOException {
+        Path logPath = createTempLogDir().resolve("audit.txt");
+        Logs first = new Logs(logPath.toString(), LogOptions.sync().segmentMaxBytes(512));
+        for (int i = 0; i < 20; i++) {
+            first.append("frank", "LOGIN", "branch", "attempt " + i);
+        }
+        first.close();
+
+        try (Stream<Path> files = Files.list(logPath.getParent())) {
+            Path sidecar = files.filter(p -> p.toString().endsWith(".idx")).findFirst().orElseThrow();
+            Files.delete(sidecar);
+        }
+
+        try (Logs reopened = new Logs(logPath.toString(), LogOptions.sync().segmentMaxBytes(512))) {
+            reopened.append("frank", "LOGOUT", "branch", "done");
+
+            List<String> frank = reopened.findByActor("frank");
+            assertEquals(21, frank.size());
+            assertTrue(frank.get(0).endsWith("Details: attempt 0"));
+            assertTrue(frank.get(20).contains("Action: LOGOUT;"));
+        }
+    }
+
+    @Test
+    void segmentedQueriesRacingRollsSeeEveryEarlierLineInOrder() throws Exception {
+        Path logPath = createTempLogDir().resolve("audit.txt");
+        try (Logs logs = new Logs(logPath.toString(), LogOptions.sync().segmentMaxBytes(512))) {
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 300; i++) {
+                    logs.append(i % 2 == 0 ? "gina" : "hank", "LOGIN", "branch", "attempt " + i);
+                }
+            });
+            writer.start();
+
+            int seen = 0;
+            while (writer.isAlive() || seen < 150) {
+                List<String> gina = logs.findByActor("gina");
+                assertTrue(gina.size() >= seen, gina.size() + " after " + seen);
+                for (int i = 0; i < gina.size(); i++) {
+                    assertTrue(gina.get(i).endsWith("Details: attempt " + (2 * i)), gina.get(i));
+                }
+                seen = gina.size();
+            }
+            writer.join();
+            assertEquals(150, seen);
+        }
+    }
+
+    @Test
+    void binaryLogRoundTripsThroughReaderAndTextExport() {
+        Path dir = createTempLogDir();
+        Path logPath = dir.resolve("audit.bin");
+        try (Logs logs = new Logs(logPath.toString(), LogOptions.async().format(LogOptions.Format.BINARY))) {
+            for (int i = 0; i < 50; i++) {
+                logs.append(i % 2 == 0 ? "gina" : "hank", "LOGIN", "branch", i == 0 ? null : "attempt " + i);
+            }
+
+            assertEquals(25, logs.findByActor("gina").size());
+            assertEquals(50, logs.findByAction("LOGIN").size());
+            assertTrue(logs.findByActor("nobody").isEmpty());
+
+            Path export = dir.resolve("audit.txt");
+            logs.exportText(export.toString());
+            List<String> lines = readLines(export);
+            assertEquals(50, lines.size());
+            assertTrue(lines.get(0).endsWith("; Actor: gina; Action: LOGIN; Target: branch; Details: null"));
+            assertTrue(lines.get(49).endsWith("; Actor: hank; Action: LOGIN; Target: branch; Details: attempt 49"));
+        }
+    }
+
+    @Test
+    void binaryLogDropsTornTailAndKeepsDictionaryOnReopen() throws IOException {
+        Path logPath = createTempLogDir().resolve("audit.bin");
+        try (Logs logs = new Logs(logPath.toString(), LogOptions.sync().format(LogOptions.Format.BINARY))) {
+            logs.append("ivy", "DELETE", "account 1", "removed");
+            logs.append("ivy", "DELETE", "account 2", "removed");
+        }
+        long goodSize = Files.size(logPath);
+        Files.write(logPath, new byte[] { 'E', 0, 0, 1 }, StandardOpenOption.APPEND);
+
+        try (Logs reopened = new Logs(logPath.toString(), LogOptions.sync().format(LogOptions.Format.BINARY))) {
+            assertEquals(goodSize, Files.size(logPath));
+            reopened.append("ivy", "DELETE", "account 1", "again");
+
+            BinaryLogReader reader = BinaryLogReader.open(logPath);
+            int entries = 0;
+            while (reader.next()) {
+                entries++;
+                assertEquals("ivy", reader.actor());
+            }
+            assertEquals(3, entries);
+            assertTrue(reopened.findByActor("ivy").get(2).endsWith("Target: account 1; Details: again"));
+        }
+    }
+
+    @Test
+    void binaryLogRecoveryAgreesWithTheMappedReader() throws IOException {
+        Path logPath = createTempLogDir().resolve("audit.bin");
+        try (Logs logs = new Logs(logPath.toString(), LogOptions.sync().format(LogOptions.Format.BINARY))) {
+            logs.append("jack", "LOGIN", "branch", null);
+            logs.append("jack", "LOGOUT", "branch", "bye");
+        }
+        // A define record cut off in the middle of its string.
+        Files.write(logPath, new byte[] { 'D', 0, 0, 0, 4, 0, 0, 0, 9, 'k' }, StandardOpenOption.APPEND);
+
+        BinaryLogReader reader = BinaryLogReader.open(logPath);
+        while (reader.next()) {
+            // walk to the end
+        }
+        List<String> dictionary = new ArrayList<>();
+        assertEquals(reader.validEnd(), BinaryLogReader.recover(logPath, dictionary));
+        assertEquals(reader.dictionary(), dictionary);
+        assertTrue(reader.validEnd() < Files.size(logPath));
+    }
+
+    @Test
+    void binaryLogCannotBeSegmented() {
+        Path logPath = createTempLogDir().resolve("audit.bin");
+        assertThrows(IllegalArgumentException.class, () -> new Logs(logPath.toString(),
+                LogOptions.sync().format(LogOptions.Format.BINARY).segmentMaxBytes(1_024)));
+    }
+}
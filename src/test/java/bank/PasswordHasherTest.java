@@ -0,0 +1,70 @@
+package bank;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PasswordHasherTest {
+
+    // Low cost keeps the tests fast; the format and checks do not depend on it.
+    private final PasswordHasher hasher = new PasswordHasher(1_000, 2, 8);
+
+    @Test
+    void hashVerifiesOnlyTheOriginalPassword() {
+        String stored = hasher.hash("password123");
+
+        assertTrue(stored.startsWith("pbkdf2$1000$"));
+        assertTrue(hasher.verify("password123", stored));
+        assertFalse(hasher.verify("password124", stored));
+        assertFalse(hasher.needsRehash(stored));
+        assertTrue(PasswordHasher.isEncoded(stored));
+    }
+
+    @Test
+    void samePasswordGetsDifferentSalts() {
+        assertNotEquals(hasher.hash("password123"), hasher.hash("password123"));
+    }
+
+    @Test
+    void legacyRowsStillVerifyAndAreFlaggedForRehash() {
+        String sha256 = "ef92b778bafe771e89245b89ecbc08a44a4e166c06659911881f383d4473e94f";
+
+        assertTrue(hasher.verify("password123", "password123"));
+        assertTrue(hasher.verify("password123", sha256));
+        assertFalse(hasher.verify("password124", sha256));
+        assertTrue(hasher.needsRehash("password123"));
+        assertTrue(hasher.needsRehash(sha256));
+        assertFalse(PasswordHasher.isEncoded("password123"));
+        assertTrue(PasswordHasher.isEncoded(sha256));
+    }
+
+    @Test
+    void lowerCostHashesNeedRehashAtHigherCost() {
+        String cheap = hasher.hash("password123");
+        PasswordHasher stronger = new PasswordHasher(2_000, 1, 4);
+
+        assertTrue(stronger.verify("password123", cheap));
+        assertTrue(stronger.needsRehash(cheap));
+    }
+
+    @Test
+    void malformedHashesFailToVerifyWithoutThrowing() {
+        for (String stored : new String[] {"pbkdf2$", "pbkdf2$x$AAAA$AAAA", "pbkdf2$0$AAAA$AAAA",
+                "pbkdf2$1000$!!$AAAA", "pbkdf2$1000$$"}) {
+            assertFalse(hasher.verify("pbkdf2$", stored), stored);
+            assertFalse(hasher.needsRehash(stored), stored);
+        }
+    }
+
+    @Test
+    void metricsCountCompletedHashes() {
+        long before = hasher.getCompletedCount();
+        hasher.hash("password123");
+
+        assertEquals(before + 1, hasher.getCompletedCount());
+        assertTrue(hasher.getTotalWorkNanos() > 0);
+    }
+}
@@ -0,0 +1,230 @@
+package bank;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Accounts spread over several shard files. Runs in its own surefire execution with
+ * bank.db.shards=4 and a fresh working directory (see pom.xml); skipped with one shard.
+ */
+public class ShardedAccountsTest {
+
+    private DatabaseManager databaseManager;
+    private AccountRepository accountRepository;
+    private LedgerService ledger;
+    // Two customers on different shards.
+    private long alice;
+    private long bob;
+
+    @BeforeAll
+    static void requireShards() {
+        assumeTrue(new DatabaseManager().getShardCount() > 1, "needs bank.db.shards > 1");
+    }
+
+    @BeforeEach
+    void setUp() {
+        databaseManager = new DatabaseManager();
+        UserRepository userRepository = new UserRepository(databaseManager);
+        accountRepository = new AccountRepository(databaseManager);
+        ledger = new LedgerService(databaseManager);
+        // Usernames are new on every run, so the working directory's files can be reused.
+        String run = Long.toString(System.nanoTime(), 36);
+        List<Long> customers = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            String username = "shard_" + run + "_" + i;
+            userRepository.addUsers(new Customer("Shard", "Customer" + i, username, "pass123"));
+            customers.add(IdentityCache.shared().byUsername(username).id());
+        }
+        alice = customers.get(0);
+        bob = customers.stream()
+                .filter(id -> databaseManager.shardForCustomer(id) != databaseManager.shardForCustomer(alice))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    void accountsLiveOnlyOnTheirCustomersShard() throws Exception {
+        String number = accountRepository.generateNewAccountNumber();
+        accountRepository.createAccount(alice, "SAVING", number, 10.0);
+        long id = accountId(number);
+        int shard = databaseManager.shardForCustomer(alice);
+
+        assertEquals(shard, databaseManager.shardForAccount(id));
+        List<Integer> rows = databaseManager.forEachShard(connection -> countAccounts(connection, number));
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(i == shard ? 1 : 0, rows.get(i), "shard " + i);
+        }
+        assertEquals(number, accountRepository.getAccountById(id).getAccountNumber());
+    }
+
+    @Test
+    void listsAndSearchesMergeEveryShard() throws Exception {
+        String aliceNumber = accountRepository.generateNewAccountNumber();
+        String bobNumber = accountRepository.generateNewAccountNumber();
+        accountRepository.createAccount(alice, "SAVING", aliceNumber, 0.0);
+        accountRepository.createAccount(bob, "SAVING", bobNumber, 0.0);
+
+        Set<String> saving = numbers(accountRepository.search(null, "SAVING", null));
+        assertTrue(saving.containsAll(Set.of(aliceNumber, bobNumber)));
+        assertEquals(bobNumber, accountRepository.getAccountByNumber(bobNumber).getAccountNumber());
+
+        String bobName = IdentityCache.shared().byId(bob).username();
+        assertEquals(Set.of(bobNumber), numbers(accountRepository.search(null, null, bobName)));
+    }
+
+    @Test
+    void crossShardTransferCommitsOnBothFiles() throws Exception {
+        long from = openAccount(alice, 100.0);
+        long to = openAccount(bob, 5.0);
+
+        LedgerService.TransferResult result = ledger.transfer(new LedgerService.Transfer(from, to, 40.0, "rent"));
+
+        assertEquals(60.0, balance(from));
+        assertEquals(45.0, balance(to));
+        assertEquals(2, rowsForTransfer(result.transferId()));
+    }
+
+    @Test
+    void failedCrossShardBatchRollsBackBothFiles() throws Exception {
+        long from = openAccount(alice, 50.0);
+        long to = openAccount(bob, 0.0);
+
+        // The first item is written on both shards before the second one fails.
+        assertThrows(IllegalStateException.class, () -> ledger.transferAll(List.of(
+                new LedgerService.Transfer(from, to, 30.0, null),
+                new LedgerService.Transfer(from, to, 30.0, null))));
+
+        assertEquals(50.0, balance(from));
+        assertEquals(0.0, balance(to));
+        assertEquals(0, transactionRows(from) + transactionRows(to));
+    }
+
+    @Test
+    void concurrentlyCreatedAccountsGetUniqueIdsAndNumbers() throws Exception {
+        List<Future<String>> created = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 40; i++) {
+                long customer = i % 2 == 0 ? alice : bob;
+                created.add(executor.submit(() -> {
+                    String number = accountRepository.generateNewAccountNumber();
+                    accountRepository.createAccount(customer, "SAVING", number, 0.0);
+                    return number;
+                }));
+            }
+            Set<String> numbers = new HashSet<>();
+            Set<Long> ids = new HashSet<>();
+            for (Future<String> future : created) {
+                String number = future.get();
+                assertTrue(numbers.add(number), "duplicate number " + number);
+                assertTrue(ids.add(accountId(number)), "duplicate id for " + number);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long openAccount(long customerId, double balance) throws Exception {
+        String accountNumber = accountRepository.generateNewAccountNumber();
+        accountRepository.createAccount(customerId, "SAVING", accountNumber, balance);
+        return accountId(accountNumber);
+    }
+
+    // Fails if the number is on more than one shard.
+    private long accountId(String accountNumber) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (List<Long> found : databaseManager.forEachShard(connection -> {
+            List<Long> onShard = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT id FROM main.accounts WHERE account_number = ?")) {
+                statement.setString(1, accountNumber);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        onShard.add(rs.getLong("id"));
+                    }
+                }
+            }
+            return onShard;
+        })) {
+            ids.addAll(found);
+        }
+        assertEquals(1, ids.size(), accountNumber);
+        return ids.get(0);
+    }
+
+    private static int countAccounts(Connection connection, String accountNumber) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT COUNT(*) FROM main.accounts WHERE account_number = ?")) {
+            statement.setString(1, accountNumber);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private static Set<String> numbers(List<Account> accounts) {
+        Set<String> numbers = new HashSet<>();
+        for (Account account : accounts) {
+            numbers.add(account.getAccountNumber());
+        }
+        return numbers;
+    }
+
+    private double balance(long accountId) throws Exception {
+        try (Connection connection = databaseManager.getConnectionForAccount(accountId);
+                PreparedStatement statement = connection.prepareStatement(
+                        "SELECT " + LedgerService.BALANCE_SQL + " FROM main.accounts a WHERE a.id = ?")) {
+            statement.setLong(1, accountId);
+            try (ResultSet rs = statement.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getDouble(1);
+            }
+        }
+    }
+
+    private int transactionRows(long accountId) throws Exception {
+        try (Connection connection = databaseManager.getConnectionForAccount(accountId);
+                PreparedStatement statement = connection.prepareStatement(
+                        "SELECT COUNT(*) FROM main.transactions WHERE account_id = ?")) {
+            statement.setLong(1, accountId);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private int rowsForTransfer(String transferId) throws Exception {
+        int rows = 0;
+        for (int onShard : databaseManager.forEachShard(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT COUNT(*) FROM main.transactions WHERE transfer_id = ?")) {
+                statement.setString(1, transferId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    rs.next();
+                    return rs.getInt(1);
+                }
+            }
+        })) {
+            rows += onShard;
+        }
+        return rows;
+    }
+}